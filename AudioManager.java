@@ -0,0 +1,91 @@
+package ShapeShifters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+// Sound effects decoded once and played from a pool of open clips
+    // Playing a sound only rewinds and starts an idle clip, so it is safe to call from the movement timer
+    // Each sound has a voice limit, a sound that has all its clips playing is dropped
+public class AudioManager {
+    public static final String FOOTSTEP = "src/ShapeShifters/sounds/footsteps.wav";
+    public static final String WALL_COLLISION = "src/ShapeShifters/sounds/wallCollide.wav";
+
+    private static final int DEFAULT_VOICES = 3;
+
+    private final Map<String, Clip[]> pools = new HashMap<>();
+    private final Map<String, Integer> nextVoice = new HashMap<>();
+
+    // Loads the game's sound effects
+    public AudioManager() {
+        load(FOOTSTEP, DEFAULT_VOICES);
+        load(WALL_COLLISION, DEFAULT_VOICES);
+    }
+
+    // Decodes a WAV file once and opens the given number of clips over the same samples
+        // Without a sound device the sound is left out and playing it does nothing
+    public synchronized void load(String path, int voices) {
+        if (pools.containsKey(path)) return;
+        List<Clip> clips = new ArrayList<>(voices);
+        try (AudioInputStream audioIn = AudioSystem.getAudioInputStream(new File(path))) {
+            AudioFormat format = audioIn.getFormat();
+            byte[] samples = readAll(audioIn);
+            for (int v = 0; v < voices; v++) {
+                Clip clip = AudioSystem.getClip();
+                clip.open(format, samples, 0, samples.length);
+                clips.add(clip);
+            }
+        } catch (UnsupportedAudioFileException | IOException | LineUnavailableException | IllegalArgumentException e) {
+            System.err.println("Could not load sound " + path + ": " + e.getMessage());
+        }
+        pools.put(path, clips.toArray(new Clip[0]));
+        nextVoice.put(path, 0);
+    }
+
+    // Plays a loaded sound on its next idle clip, returns false if it was dropped
+    public synchronized boolean play(String path) {
+        Clip[] clips = pools.get(path);
+        if (clips == null || clips.length == 0) return false;
+        int start = nextVoice.get(path);
+        for (int k = 0; k < clips.length; k++) {
+            int v = (start + k) % clips.length;
+            Clip clip = clips[v];
+            if (!clip.isActive()) {
+                clip.stop();
+                clip.setFramePosition(0);
+                clip.start();
+                nextVoice.put(path, (v + 1) % clips.length);
+                return true;
+            }
+        }
+        return false; // every voice is busy
+    }
+
+    // Closes every clip and releases the audio lines
+    public synchronized void close() {
+        for (Clip[] clips : pools.values()) {
+            for (Clip clip : clips) {
+                clip.close();
+            }
+        }
+        pools.clear();
+        nextVoice.clear();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        in.transferTo(out);
+        return out.toByteArray();
+    }
+}
@@ -2,19 +2,17 @@ package ShapeShifters;
 
 import java.awt.BorderLayout;
 import java.awt.GraphicsConfiguration;
-import java.awt.Point;
 import java.awt.event.*;
-import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import org.jogamp.java3d.*;
-import org.jogamp.java3d.loaders.Scene;
 import org.jogamp.java3d.loaders.objectfile.ObjectFile;
 import org.jogamp.java3d.utils.geometry.Box;
 import org.jogamp.java3d.utils.geometry.Cylinder;
@@ -45,29 +43,61 @@ public class BasicScene extends JPanel implements MouseListener {
     private final double STEP = 0.010;
 
 
-    // Maze collision data
-    private HashMap<Rectangle2D.Double, Point> wallBounds = new HashMap<>();
+    // Maze size used by older servers, newer ones send the size with the world seed
+    private static final int DEFAULT_MAZE_SIZE = 20;
+    private int mazeHeight = DEFAULT_MAZE_SIZE;
+    private int mazeWidth = DEFAULT_MAZE_SIZE;
+    private int[][] walls = new int[mazeHeight][mazeWidth];
 
-    private static final int MAZE_HEIGHT = 20;
-    private static final int MAZE_WIDTH = 20;
-    private static int[][] walls = new int[MAZE_HEIGHT][MAZE_WIDTH];
-    private static HashSet<Point> movingWalls = new HashSet<>();
-    private static HashMap<Point, Alpha> movingWallAlphas = new HashMap<>();
+    // Maze collision data, walls indexed by grid cell with moving walls flagged
+    private MazeGrid wallGrid = new MazeGrid(mazeHeight, mazeWidth);
+    private Alpha movingWallAlpha; // shared by all moving walls
+    private long wallClockOffset = 0; // added to System.currentTimeMillis to get the server's moving wall time
+    private Appearance wallAppearance;
+    private MazeChunks mazeChunks = new MazeChunks(mazeHeight, mazeWidth); // wall geometry by square of cells
 
     // NPC integration
     private List<NPC> npcs = new ArrayList<>();
+    private NpcStore npcStore = new NpcStore(0); // state of the npcs, the NPC models are views over it
     private final double NPC_STEP = 0.01;
     private Appearance npcAppearance;
 
     // Networking variables
     private Socket socket;
     private PrintWriter out;
+    private NetworkPump pump;
+    private volatile boolean connectionLost = false;
     private BufferedReader in;
     private int playerId = 0; // Assigned by the server
+    private Set<String> serverCaps = Collections.emptySet(); // Agreed in the handshake, empty for older servers
+    private final NpcSnapshotCodec.History npcHistory = new NpcSnapshotCodec.History(64);
+
+    // Remote NPCs and the opponent are drawn from timestamped snapshots a little in the past
+        // The delay can be changed with -Dshapeshifters.interpolationDelay=<ms>
+    private static final long INTERPOLATION_DELAY_MILLIS =
+            Long.getLong("shapeshifters.interpolationDelay", InterpolationBehavior.DEFAULT_DELAY_MILLIS);
+    private final List<SnapshotBuffer> npcBuffers = new ArrayList<>();
+    private final SnapshotBuffer opponentBuffer = new SnapshotBuffer();
+
+    // Prediction of the local ghost when the server runs player movement, see PlayerMovement
+    private int inputSeq = 0;
+    private final PlayerMovement.PendingInputs pendingInputs = new PlayerMovement.PendingInputs(256);
+    private final AtomicReference<String> latestState = new AtomicReference<>(); // newest STATE line, applied on the timer
+    private final PlayerMovement.State predicted = new PlayerMovement.State();
+    private final PlayerMovement.State acknowledged = new PlayerMovement.State(); // reused by reconcile for each STATE
+    private static final double RECONCILE_EPSILON = 1e-6;
+    private final PlayerMovement.Obstacles localObstacles = this::blockedByOthers;
+
+    // Frame time and latency overlay, see FrameStatsHud
+    private final FrameStatsHud hud = FrameStatsHud.fromProperties();
+    private static final int PING_INTERVAL_MS = 1000;
 
     // 3D universe reference
     private SimpleUniverse universe;
 
+    // Sound effects, decoded once when the scene is created
+    private final AudioManager audio = new AudioManager();
+
     // Sound effect timing
     private long lastFootstepTime = 0;
     private long lastCollisionTime = 0;
@@ -78,10 +108,26 @@ public class BasicScene extends JPanel implements MouseListener {
     private SpotLight spotlight;
     private TransformGroup spotlightTG;
     private BoundingSphere lightBounds;
+    private static final double SPOTLIGHT_REACH = 1.5; // the spotlight hangs 0.7 above the floor
     private static final float SPOTLIGHT_RADIUS = 0.5f;
     private static final float SPOTLIGHT_CONCENTRATION = 50.0f;
     private static final float SPOTLIGHT_SPREAD_ANGLE = (float) Math.PI / 6;
 
+    // View culling around the follow camera, which looks at the player from 0.78 away
+        // Maze chunks within VIEW_RADIUS of the player are drawn, which covers the view with some margin
+        // Behaviors are only scheduled inside the activation radius around the camera
+    private static final double VIEW_RADIUS = 1.2;
+
+    // Scratch objects for the camera and spotlight, reused every frame so moving allocates nothing
+    private final Point3d cameraEye = new Point3d();
+    private final Point3d cameraCenter = new Point3d();
+    private final Vector3d cameraUp = new Vector3d(0, 0, -1);
+    private final Transform3D viewTransform = new Transform3D();
+    private final Transform3D spotlightTransform = new Transform3D();
+    private final Vector3d spotlightPos = new Vector3d();
+    private final Point3f fanLodPosition = new Point3f();
+    private static final float ACTIVATION_RADIUS = 2.0f;
+
     // Movement state booleans for smooth movement
     private boolean upPressed = false;
     private boolean downPressed = false;
@@ -124,35 +170,73 @@ public class BasicScene extends JPanel implements MouseListener {
         this.username = username;
         try {
             socket = new Socket(ipAddress, 5001);
-            out = new PrintWriter(socket.getOutputStream(), true);
+            // every message goes out through the pump, a few batched writes per second instead of a flush per line
+            pump = new NetworkPump(socket.getOutputStream(), NetworkPump.sendRateFromProperties());
+            out = pump.writer();
+            pump.setFailureListener(e -> connectionLost());
+            pump.start();
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out.println(Handshake.line(Handshake.HELLO,
+                    List.of(Handshake.CAP_NPC_BINARY, Handshake.CAP_WORLD_SEED, Handshake.CAP_MAZE_STREAM, Handshake.CAP_INPUT,
+                            Handshake.CAP_PING, Handshake.CAP_WALL_CLOCK)));
 
+            // Newer servers answer with WELCOME before the player id
             String idLine = in.readLine();
+            if (idLine != null && idLine.startsWith(Handshake.WELCOME)) {
+                serverCaps = Handshake.parseCaps(idLine);
+                idLine = in.readLine();
+            }
+            if (idLine != null && idLine.startsWith(Handshake.WALL_CLOCK + " ")) {
+                long serverPhase = Long.parseLong(idLine.substring(Handshake.WALL_CLOCK.length()).trim());
+                wallClockOffset = MovingWallClock.offsetFromPhase(serverPhase, System.currentTimeMillis());
+                idLine = in.readLine();
+            }
             if (idLine != null && idLine.startsWith("ID ")) {
                 playerId = Integer.parseInt(idLine.substring(3).trim());
                 System.out.println("Assigned player ID: " + playerId);
             }
+            // cycles start on the same wall-clock multiples as the server's MovingWallClock
+            movingWallAlpha = new Alpha(-1, Alpha.INCREASING_ENABLE | Alpha.DECREASING_ENABLE,
+                    0, MovingWallClock.delayToNextCycle(System.currentTimeMillis() + wallClockOffset),
+                    MovingWallClock.RAMP_MS, 0, MovingWallClock.OPEN_MS,
+                    MovingWallClock.RAMP_MS, 0, MovingWallClock.CLOSED_MS);
+
             String mazeStr = in.readLine();
-            int index = 0;
-            if (mazeStr != null) {
-                for (int i = 0; i < MAZE_HEIGHT; i++) {
-                    for (int j = 0; j < MAZE_WIDTH; j++) {
-                        walls[i][j] = mazeStr.charAt(index) - '0';
-                        index++;
+            if (mazeStr != null && mazeStr.startsWith(Handshake.WORLD + " ")) {
+                // seeded world, rebuild the same maze the server generated
+                String[] parts = mazeStr.split(" ");
+                long seed = Long.parseLong(parts[1]);
+                setMazeSize(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+                MazeManager mazeManager = new MazeManager(mazeHeight, mazeWidth, seed);
+                for (int i = 0; i < mazeHeight; i++) {
+                    for (int j = 0; j < mazeWidth; j++) {
+                        walls[i][j] = mazeManager.isWall(i, j) ? 1 : 0;
                     }
                 }
+                for (int[] coords : mazeManager.getMovingWalls()) {
+                    wallGrid.setMoving(coords[0], coords[1], true);
+                }
             }
+            else if (mazeStr != null && mazeStr.startsWith(MazeStreamCodec.BEGIN + " ")) {
+                readMazeStream(mazeStr);
+            }
+            else {
+                int index = 0;
+                if (mazeStr != null) {
+                    for (int i = 0; i < mazeHeight; i++) {
+                        for (int j = 0; j < mazeWidth; j++) {
+                            walls[i][j] = mazeStr.charAt(index) - '0';
+                            index++;
+                        }
+                    }
+                }
 
-            long offset = System.currentTimeMillis() % 19000;
-            Alpha a = new Alpha(-1, Alpha.INCREASING_ENABLE | Alpha.DECREASING_ENABLE,
-                    0, 19000 - offset, 2000, 0, 5000, 2000, 0, 10000);
-            for (int i = 0; i < 4; i++) {
-                String coords = in.readLine();
-                if (coords != null) {
-                    String[] split = coords.split(" ");
-                    Point p = new Point(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
-                    movingWalls.add(p);
-                    movingWallAlphas.put(p, a);
+                for (int i = 0; i < 4; i++) {
+                    String coords = in.readLine();
+                    if (coords != null) {
+                        String[] split = coords.split(" ");
+                        wallGrid.setMoving(Integer.parseInt(split[0]), Integer.parseInt(split[1]), true);
+                    }
                 }
             }
 
@@ -166,6 +250,7 @@ public class BasicScene extends JPanel implements MouseListener {
             String npcCountLine = in.readLine();
             if (npcCountLine != null && npcCountLine.startsWith("NPC_COUNT ")) {
                 int npcCount = Integer.parseInt(npcCountLine.split(" ")[1]);
+                npcStore = new NpcStore(npcCount);
                 for (int i = 0; i < npcCount; i++) {
                     String npcData = in.readLine();
                     if (npcData != null && npcData.startsWith("NPC_INIT ")) {
@@ -174,10 +259,10 @@ public class BasicScene extends JPanel implements MouseListener {
                         double z = Double.parseDouble(tokens[2]);
                         double dirX = Double.parseDouble(tokens[3]);
                         double dirZ = Double.parseDouble(tokens[4]);
-                        Vector3d pos = new Vector3d(x, 0.1, z);
-                        Vector3d dir = new Vector3d(dirX, 0, dirZ);
-                        NPC npc = new NPC(pos, dir, NPC_STEP, npcAppearance);
+                        int index = npcStore.add(x, z, dirX, dirZ, NPC_STEP, 0);
+                        NPC npc = new NPC(npcStore, index, npcAppearance);
                         npcs.add(npc);
+                        npcBuffers.add(new SnapshotBuffer());
                     }
                 }
             }
@@ -221,29 +306,34 @@ public class BasicScene extends JPanel implements MouseListener {
                         }
                         continue;
                     }
-                    // Handle NPC update messages
-                    if (line.startsWith("NPC_UPDATE")) {
-                        String[] tokens = line.split(" ");
-                        for (int i = 1; i < tokens.length; i += 6) {
-                            int npcId = Integer.parseInt(tokens[i]);
-                            double x = Double.parseDouble(tokens[i + 1]);
-                            double y = Double.parseDouble(tokens[i + 2]);
-                            double z = Double.parseDouble(tokens[i + 3]);
-                            double dirX = Double.parseDouble(tokens[i + 4]);
-                            double dirZ = Double.parseDouble(tokens[i + 5]);
-
-                            NPC npc = npcs.get(npcId);
-                            Vector3d newPos = new Vector3d(x, y, z);
-                            npc.setPosition(newPos);
-                            Transform3D transform = new Transform3D();
-                            transform.setTranslation(newPos);
-                            npc.getTransformGroup().setTransform(transform);
-
-                            // Update direction and rotation
-                            npc.updateDirection(new Vector3d(dirX, 0, dirZ));
+                    if (line.startsWith(Handshake.PONG + " ")) {
+                        hud.pongReceived(line);
+                        continue;
+                    }
+                    // Handle binary NPC snapshots and acknowledge them so the next delta builds on this one
+                    if (line.startsWith(NpcSnapshotCodec.PREFIX)) {
+                        long receivedAt = System.nanoTime();
+                        NpcSnapshotCodec.Snapshot snapshot = NpcSnapshotCodec.decodeLine(line, npcHistory);
+                        if (snapshot != null) {
+                            snapshot.read(this::applyNpcState);
+                            out.println(NpcSnapshotCodec.ACK + " " + snapshot.tick);
+                            hud.npcUpdateReceived(receivedAt);
                         }
                         continue;
                     }
+                    // Handle NPC update messages
+                    if (line.startsWith(NpcSnapshotCodec.TEXT_PREFIX)) {
+                        long receivedAt = System.nanoTime();
+                        NpcSnapshotCodec.decodeText(line, this::applyNpcState);
+                        hud.npcUpdateReceived(receivedAt);
+                        continue;
+                    }
+
+                    // Authoritative state of the local ghost, reconciled on the movement timer
+                    if (line.startsWith(PlayerMovement.STATE + " ")) {
+                        latestState.set(line);
+                        continue;
+                    }
 
                     // Process regular player position updates
                     String[] tokens = line.split(" ");
@@ -259,7 +349,11 @@ public class BasicScene extends JPanel implements MouseListener {
                     if (tokens.length >= 5) {
                         direction = Integer.parseInt(tokens[4]);
                     }
-                    if (id == 1 && redGhost != null) {
+                    if (id != playerId) {
+                        // the opponent is moved by the interpolation behavior
+                        opponentBuffer.add(System.nanoTime(), x, z, 0, 0, direction);
+                    }
+                    else if (id == 1 && redGhost != null) {
                         redBoxPos.x = x;
                         redBoxPos.z = z;
                         redGhost.updatePositionAndRotation(x, z, direction);
@@ -281,19 +375,34 @@ public class BasicScene extends JPanel implements MouseListener {
                     }
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                if (!connectionLost) e.printStackTrace();
             }
+            connectionLost(); // the server closed the connection or reading failed
         }).start();
 
 
     }
 
+    // Buffers an NPC state received from the server, the interpolation behavior draws it
+    private void applyNpcState(int npcId, double x, double z, double dirX, double dirZ) {
+        npcBuffers.get(npcId).add(System.nanoTime(), x, z, dirX, dirZ);
+    }
+
+    // Moves an NPC to an interpolated state
+    private void showNpcState(int npcId, double x, double z, double dirX, double dirZ) {
+        NPC npc = npcs.get(npcId);
+        npc.setPosition(x, z);
+
+        // Update direction and rotation
+        npc.setDirection(dirX, dirZ);
+    }
+
     // Builds and returns the entire 3D scene graph
     public BranchGroup createScene() {
 
         BranchGroup sceneBG = new BranchGroup();
         Background background = new Background(new Color3f(0.01f, 0.01f, 0.01f));
-        BoundingSphere bounds = new BoundingSphere(new Point3d(0, 0, 0), 100.0);
+        BoundingBox bounds = getMazeBounds();
         background.setApplicationBounds(bounds);
         sceneBG.addChild(background);
         ShootingStars shootingStars = new ShootingStars();
@@ -339,7 +448,7 @@ public class BasicScene extends JPanel implements MouseListener {
             Point2f bluePosn = getUnfilledPosn();
             blueBoxPos.x = bluePosn.getX();
             blueBoxPos.z = bluePosn.getY();
-            out.println(playerId + " " + blueBoxPos.x + " " + 0.1 + " " + blueBoxPos.x + " " + GhostModel.DIRECTION_DOWN);
+            out.println(playerId + " " + blueBoxPos.x + " " + 0.1 + " " + blueBoxPos.z + " " + GhostModel.DIRECTION_DOWN);
         }
 
         redGhost = new GhostModel(true, redBoxPos);
@@ -347,25 +456,6 @@ public class BasicScene extends JPanel implements MouseListener {
         sceneBG.addChild(redGhost.getTransformGroup());
 
         // Blue ghost added to pickTool
-        Appearance wallAppearance = new Appearance();
-        String wallTexturePath = "src/ShapeShifters/Textures/WhiteWallTexture.jpg";
-        try {
-            URL wallTextureURL = new File(wallTexturePath).toURI().toURL();
-            Texture wallTexture = new TextureLoader(wallTextureURL, "RGB", new java.awt.Container()).getTexture();
-            if (wallTexture != null) {
-                wallAppearance.setTexture(wallTexture);
-                TextureAttributes wallTexAttr = new TextureAttributes();
-                wallTexAttr.setTextureMode(TextureAttributes.MODULATE);
-                wallAppearance.setTextureAttributes(wallTexAttr);
-            }
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-        }
-
-        Material wallMat = new Material();
-        wallMat.setDiffuseColor(new Color3f(1.0f, 1.0f, 1.0f));
-        wallAppearance.setMaterial(wallMat);
         AmbientLight ambientLight = new AmbientLight(new Color3f(0.05f, 0.05f, 0.05f));
         ambientLight.setInfluencingBounds(bounds);
         sceneBG.addChild(ambientLight);
@@ -375,27 +465,11 @@ public class BasicScene extends JPanel implements MouseListener {
         directionalLight.setInfluencingBounds(bounds);
         sceneBG.addChild(directionalLight);
 
-        for (int i = 0; i < MAZE_HEIGHT; i++) {
-            for (int j = 0; j < MAZE_WIDTH; j++) {
-                if (walls[i][j] == 1) {
-                    TransformGroup tg = addWall(sceneBG,
-                            -1 + i * 0.103f, 0.1f, -1 + j * 0.103f,
-                            0.055f, 0.05f, 0.055f,
-                            wallAppearance, i, j, true);
-                    if (movingWalls.contains(new Point(i, j))) {
-                        tg.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
-                        tg.setCapability(TransformGroup.ALLOW_TRANSFORM_READ);
-                        Transform3D axis = new Transform3D();
-                        axis.rotZ(Math.PI / 2);
-                        Alpha a = movingWallAlphas.get(new Point(i, j));
-                        PositionInterpolator interpolator = new PositionInterpolator(a, tg, axis, 0f, -0.101f);
-                        interpolator.setSchedulingBounds(new BoundingSphere(new Point3d(0, 0, 0), 100.0));
-                        tg.addChild(interpolator);
-                    }
-                    sceneBG.addChild(tg);
-                }
-            }
+        // walls streamed from the server were built as their chunks arrived
+        if (mazeChunks.isEmpty()) {
+            buildWallRows(0, mazeHeight);
         }
+        sceneBG.addChild(mazeChunks.getRoot());
 
         BranchGroup npcBG = new BranchGroup();
         npcBG.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
@@ -404,12 +478,14 @@ public class BasicScene extends JPanel implements MouseListener {
             npcBG.addChild(npc.getTransformGroup());
         }
 
-        for (int i = 9; i < 12; i++) {
-            for (int j = 9; j < 12; j++) {
+        int centerI = MazeManager.centerStart(mazeHeight);
+        int centerJ = MazeManager.centerStart(mazeWidth);
+        for (int i = centerI; i < centerI + 3; i++) {
+            for (int j = centerJ; j < centerJ + 3; j++) {
                 addWall(sceneBG,
                         -1 + i * 0.103f, 0.1f, -1 + j * 0.103f,
                         0.055f, 0.05f, 0.055f,
-                        wallAppearance, i, j, false);
+                        getWallAppearance(), i, j, false);
             }
         }
 
@@ -423,7 +499,7 @@ public class BasicScene extends JPanel implements MouseListener {
 
             // Create and add treasure behavior
             treasureKeyBehavior = new TreasureKeyBehavior(treasureManager, redBoxPos, blueBoxPos, playerId, sceneBG, out);
-            treasureKeyBehavior.setSchedulingBounds(new BoundingSphere(new Point3d(0,0,0), 100.0));
+            treasureKeyBehavior.setSchedulingBounds(bounds);
             sceneBG.addChild(treasureKeyBehavior);
         }
 
@@ -461,23 +537,22 @@ public class BasicScene extends JPanel implements MouseListener {
         float offset = 0.3f;
 
         // Create LOD versions of the fan blades
-        // Load the models separately for left and right
-        ObjectFile f = new ObjectFile(ObjectFile.RESIZE, (float) (60 * Math.PI / 180.0));
-        Scene s1 = null;
-        Scene s2 = null;
+        // One copy of the model for each side, the file is parsed once
+        BranchGroup fanLeft = null;
+        BranchGroup fanRight = null;
         try {
-            s1 = f.load("src/ShapeShifters/assets/FanBlades.obj");
-            s2 = f.load("src/ShapeShifters/assets/FanBlades.obj");
+            fanLeft = ModelCache.load("src/ShapeShifters/assets/FanBlades.obj", ObjectFile.RESIZE, (float) (60 * Math.PI / 180.0));
+            fanRight = ModelCache.load("src/ShapeShifters/assets/FanBlades.obj", ObjectFile.RESIZE, (float) (60 * Math.PI / 180.0));
         }
         catch (Exception e) {}
-        if (s1 == null || s2 == null) {
+        if (fanLeft == null || fanRight == null) {
             System.exit(1);
         }
 
         // LEFT FAN BLADE
         // Create high detail version for left fan
         TransformGroup tg1 = new TransformGroup();
-        tg1.addChild(s1.getSceneGroup());
+        tg1.addChild(fanLeft);
         Transform3D transform1 = new Transform3D();
         transform1.rotY(Math.PI/2);
         transform1.setScale(.1);
@@ -509,9 +584,9 @@ public class BasicScene extends JPanel implements MouseListener {
         BranchGroup leftFanLODBG = LODHelper.createLOD(tg1, emptyLeftTG, lowDetailLeftTG, fanDistances);
 
         // RIGHT FAN BLADE
-        // Create high detail version for right fan (using separate model instance)
+        // Create high detail version for right fan (using its own copy of the model)
         TransformGroup tg2 = new TransformGroup();
-        tg2.addChild(s2.getSceneGroup());
+        tg2.addChild(fanRight);
         Transform3D transform2 = new Transform3D();
         transform2.rotY(Math.PI/2);
         transform2.setScale(.1);
@@ -560,6 +635,25 @@ public class BasicScene extends JPanel implements MouseListener {
         return sceneBG;
     }
 
+    // Called once the pump could not write to the server, closing the socket also ends the reader thread
+    private void connectionLost() {
+        if (connectionLost) return;
+        connectionLost = true;
+        System.err.println("Connection to the server lost");
+        try {
+            socket.close();
+        } catch (IOException e) { /* ignore */ }
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                "The connection to the server was lost.", "Disconnected", JOptionPane.ERROR_MESSAGE));
+    }
+
+    // Releases the sound effects when the scene leaves its window
+    @Override
+    public void removeNotify() {
+        audio.close();
+        super.removeNotify();
+    }
+
     // Game ended
     public static boolean getGameEnded(){
         return gameEnded;
@@ -568,6 +662,8 @@ public class BasicScene extends JPanel implements MouseListener {
     // Function that triggers the game ended logic
     private void triggerGameEnd(String winner) {
         gameEnded = true;
+        audio.close(); // no more sound effects, give the audio lines back
+        if (pump != null) pump.stop(); // sends what is still queued, nothing more is needed from this client
         // Pause the game for 2 seconds before showing the end animation.
         new Thread(() -> {
             try {
@@ -583,16 +679,120 @@ public class BasicScene extends JPanel implements MouseListener {
         }).start();
     }
 
+    // Reads the chunked maze transfer, building the walls of each band of rows as it arrives
+    private void readMazeStream(String beginLine) throws IOException {
+        MazeStreamCodec.Decoder decoder = new MazeStreamCodec.Decoder(beginLine);
+        setMazeSize(decoder.getHeight(), decoder.getWidth());
+        for (int[] coords : decoder.getMovingWalls()) {
+            wallGrid.setMoving(coords[0], coords[1], true);
+        }
+        try {
+            String line;
+            while ((line = in.readLine()) != null && !line.startsWith(MazeStreamCodec.END)) {
+                if (!line.startsWith(MazeStreamCodec.CHUNK + " ")) continue;
+                decoder.decodeChunk(line, (firstRow, rowCount, cells) -> {
+                    for (int r = 0; r < rowCount; r++) {
+                        for (int j = 0; j < mazeWidth; j++) {
+                            walls[firstRow + r][j] = cells[r * mazeWidth + j];
+                        }
+                    }
+                    buildWallRows(firstRow, rowCount);
+                });
+            }
+        } finally {
+            decoder.close();
+        }
+    }
+
+    // Shared textured appearance of every wall, created on first use
+    private Appearance getWallAppearance() {
+        if (wallAppearance != null) return wallAppearance;
+        wallAppearance = new Appearance();
+        String wallTexturePath = "src/ShapeShifters/Textures/WhiteWallTexture.jpg";
+        try {
+            URL wallTextureURL = new File(wallTexturePath).toURI().toURL();
+            Texture wallTexture = new TextureLoader(wallTextureURL, "RGB", new java.awt.Container()).getTexture();
+            if (wallTexture != null) {
+                wallAppearance.setTexture(wallTexture);
+                TextureAttributes wallTexAttr = new TextureAttributes();
+                wallTexAttr.setTextureMode(TextureAttributes.MODULATE);
+                wallAppearance.setTextureAttributes(wallTexAttr);
+            }
+        }
+        catch(Exception e) {
+            e.printStackTrace();
+        }
+
+        Material wallMat = new Material();
+        wallMat.setDiffuseColor(new Color3f(1.0f, 1.0f, 1.0f));
+        wallAppearance.setMaterial(wallMat);
+        return wallAppearance;
+    }
+
+    // Builds the walls of a band of maze rows into the maze chunks
+        // Static walls are merged into one shape per region, only the moving walls keep their own Box and interpolator
+    private void buildWallRows(int firstRow, int rowCount) {
+        for (int i = firstRow; i < firstRow + rowCount; i++) {
+            for (int j = 0; j < mazeWidth; j++) {
+                if (walls[i][j] == 1) {
+                    wallGrid.setWall(i, j, true);
+                }
+            }
+        }
+
+        WallMeshBuilder meshBuilder = new WallMeshBuilder(
+                (i, j) -> walls[i][j] == 1 && !wallGrid.isMoving(i, j), mazeHeight, mazeWidth);
+        meshBuilder.build(firstRow, rowCount, getWallAppearance(), mazeChunks::add);
+
+        for (int i = firstRow; i < firstRow + rowCount; i++) {
+            for (int j = 0; j < mazeWidth; j++) {
+                if (walls[i][j] == 1 && wallGrid.isMoving(i, j)) {
+                    TransformGroup tg = addWall(null,
+                            -1 + i * 0.103f, 0.1f, -1 + j * 0.103f,
+                            0.055f, 0.05f, 0.055f,
+                            getWallAppearance(), i, j, true);
+                    tg.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
+                    tg.setCapability(TransformGroup.ALLOW_TRANSFORM_READ);
+                    Transform3D axis = new Transform3D();
+                    axis.rotZ(Math.PI / 2);
+                    PositionInterpolator interpolator = new PositionInterpolator(movingWallAlpha, tg, axis, 0f, -0.101f);
+                    interpolator.setSchedulingBounds(new BoundingSphere(
+                            new Point3d(-1 + i * 0.103, 0.1, -1 + j * 0.103), 0.2));
+                    tg.addChild(interpolator);
+                    mazeChunks.add(i, j, tg);
+                }
+            }
+        }
+    }
+
+    // Box around the whole maze and the camera above it, used for lights and behaviors that apply everywhere
+    private BoundingBox getMazeBounds() {
+        double margin = 1.0;
+        return new BoundingBox(
+                new Point3d(MazeGrid.ORIGIN - margin, -margin, MazeGrid.ORIGIN - margin),
+                new Point3d(MazeGrid.ORIGIN + mazeHeight * MazeGrid.CELL_SIZE + margin, 1.0 + margin,
+                        MazeGrid.ORIGIN + mazeWidth * MazeGrid.CELL_SIZE + margin));
+    }
+
+    // Resizes the maze data for a world of the given size
+    private void setMazeSize(int height, int width) {
+        mazeHeight = height;
+        mazeWidth = width;
+        walls = new int[height][width];
+        wallGrid = new MazeGrid(height, width);
+        mazeChunks = new MazeChunks(height, width);
+    }
+
     // Function to get the unfilled posn
     private Point2f getUnfilledPosn() {
         Random rand = new Random();
         float x;
         float z;
         while (true) {
-            int randX = rand.nextInt(18) + 1;
-            int randY = rand.nextInt(18) + 1;
+            int randX = rand.nextInt(mazeHeight - 2) + 1;
+            int randY = rand.nextInt(mazeWidth - 2) + 1;
             // Empty posn not filled by the spinny thingamajig
-            if ((walls[randX][randY] == 0) && !(9 <= randX && randX < 12 && 9 <= randY && randY < 12)) {
+            if ((walls[randX][randY] == 0) && !MazeManager.isCenter(randX, randY, mazeHeight, mazeWidth)) {
                 x = -1 + randX * 0.103f;
                 z = -1 + randY * 0.103f;
                 break;
@@ -635,23 +835,11 @@ public class BasicScene extends JPanel implements MouseListener {
             Box wall = new Box((float) width, (float) height, (float) depth,
                     Box.GENERATE_NORMALS | Box.GENERATE_TEXTURE_COORDS, appearance);
             tg.addChild(wall);
-            double left = x - width;
-            double top = z + depth;
-            double rectWidth = 2 * width;
-            double rectHeight = 2 * depth;
-            double bottom = top - rectHeight;
-            Rectangle2D.Double wallRect = new Rectangle2D.Double(left, bottom, rectWidth, rectHeight);
-            wallBounds.put(wallRect, new Point(i, j));
+            wallGrid.setWall(i, j, true);
             return container;
         }
 
-        double left = x - width;
-        double top = z + depth;
-        double rectWidth = 2 * width;
-        double rectHeight = 2 * depth;
-        double bottom = top - rectHeight;
-        Rectangle2D.Double wallRect = new Rectangle2D.Double(left, bottom, rectWidth, rectHeight);
-        wallBounds.put(wallRect, new Point(i, j));
+        wallGrid.setWall(i, j, true);
         return null;
     }
 
@@ -673,7 +861,7 @@ public class BasicScene extends JPanel implements MouseListener {
         TransformGroup spotlightTransformGroup = new TransformGroup(lightTransform);
         spotlightTransformGroup.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
         spotlightTransformGroup.addChild(spotlight);
-        lightBounds = new BoundingSphere(new Point3d(0, 0, 0), 100.0);
+        lightBounds = new BoundingSphere(new Point3d(0, 0, 0), SPOTLIGHT_REACH); // moves with the light
         spotlight.setInfluencingBounds(lightBounds);
         sceneBG.addChild(spotlightTransformGroup);
         spotlightTG = spotlightTransformGroup;
@@ -682,12 +870,26 @@ public class BasicScene extends JPanel implements MouseListener {
     // Sets up the 3D canvas, camera, controls, lighting, and real-time input listeners
     public void setupUniverse(BranchGroup sceneBG) {
         GraphicsConfiguration config = SimpleUniverse.getPreferredConfiguration();
-        canvas = new Canvas3D(config);
+        canvas = new Canvas3D(config) {
+            @Override
+            public void postRender() {
+                if (hud.isVisible()) hud.draw(getGraphics2D());
+            }
+
+            @Override
+            public void postSwap() {
+                hud.frameSwapped();
+            }
+        };
         canvas.addMouseListener(this);
         // Set up key listener to update movement state
         canvas.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_F3) {
+                    hud.toggle();
+                    return;
+                }
                 switch (e.getKeyChar()) {
                     case 'w':
                         upPressed = true;
@@ -730,10 +932,25 @@ public class BasicScene extends JPanel implements MouseListener {
         canvas.requestFocusInWindow();
 
         blueGhostCycle = new AppearanceCycleBehavior(blueGhost.getTransformGroup(), blueGhost, out);
-        blueGhostCycle.setSchedulingBounds(new BoundingSphere(new Point3d(0,0,0), 100.0));
+        blueGhostCycle.setSchedulingBounds(getMazeBounds());
         BranchGroup behaviorBG = new BranchGroup();
         behaviorBG.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
         behaviorBG.addChild(blueGhostCycle);
+
+        InterpolationBehavior interpolation = new InterpolationBehavior(INTERPOLATION_DELAY_MILLIS);
+        for (int i = 0; i < npcs.size(); i++) {
+            int npcId = i;
+            interpolation.add(npcBuffers.get(i), s -> showNpcState(npcId, s.x, s.z, s.dirX, s.dirZ));
+        }
+        interpolation.add(opponentBuffer, s -> {
+            Vector3d opponentPos = (playerId == 1) ? blueBoxPos : redBoxPos;
+            GhostModel opponent = (playerId == 1) ? blueGhost : redGhost;
+            opponentPos.x = s.x;
+            opponentPos.z = s.z;
+            opponent.updatePositionAndRotation(s.x, s.z, s.facing);
+        });
+        interpolation.setSchedulingBounds(getMazeBounds());
+        behaviorBG.addChild(interpolation);
         sceneBG.addChild(behaviorBG);
         Timer movementTimer = new Timer(16, new ActionListener() {
             @Override
@@ -743,7 +960,14 @@ public class BasicScene extends JPanel implements MouseListener {
         });
         movementTimer.start();
 
+        // round trips for the HUD, only servers that agreed on CAP_PING answer
+        if (serverCaps.contains(Handshake.CAP_PING)) {
+            new Timer(PING_INTERVAL_MS, e -> pump.requestPing()).start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(hud::closeTrace));
+
         universe = new SimpleUniverse(canvas);
+        universe.getViewingPlatform().getViewPlatform().setActivationRadius(ACTIVATION_RADIUS);
         updateCamera();
         updateSpotlight();
         universe.addBranchGraph(sceneBG);
@@ -753,87 +977,30 @@ public class BasicScene extends JPanel implements MouseListener {
 
     // Movement called on timer
         // Applies key movement, handles collisions, updates ghost positions
+        // With a server that runs player movement the frame is also sent as input and corrected by its answers
     private void updateMovement() {
-        double dx = 0, dz = 0;
-        double oldX, oldZ, newX = 0, newZ = 0;
-        if (playerId == 1) {
-            oldX = redBoxPos.x;
-            oldZ = redBoxPos.z;
-        }
-        else {
-            oldX = blueBoxPos.x;
-            oldZ = blueBoxPos.z;
-        }
+        reconcile();
+        int buttons = PlayerMovement.buttons(upPressed, downPressed, leftPressed, rightPressed);
+        if (buttons == 0) return; // No movement if no key pressed
 
-        int direction = -1;
+        Vector3d localPos = (playerId == 1) ? redBoxPos : blueBoxPos;
         // Get the movement step from the corresponding ghost
         double step = (playerId == 1) ? redGhost.step : blueGhost.step;
-        boolean moved = false;
-
-        // Try various combinations: first change both axes, then only one axis
-        boolean[][] combos = { {true, true}, {true, false}, {false, true}, {false, false} };
-        for (boolean[] combo : combos) {
-            boolean changeX = combo[0], changeZ = combo[1];
-            dx = 0;
-            dz = 0;
-            newX = oldX;
-            newZ = oldZ;
-            direction = -1;
-            // Apply key inputs conditionally
-            if (upPressed && changeZ) {
-                dz -= step;
-                direction = GhostModel.DIRECTION_UP;
-            }
-            if (downPressed && changeZ) {
-                dz += step;
-                direction = GhostModel.DIRECTION_DOWN;
-            }
-            if (leftPressed && changeX) {
-                dx -= step;
-                direction = GhostModel.DIRECTION_LEFT;
-            }
-            if (rightPressed && changeX) {
-                dx += step;
-                direction = GhostModel.DIRECTION_RIGHT;
-            }
-
-            // Normalize diagonal movement
-            if (dx != 0 || dz != 0) {
-                double length = Math.sqrt(dx * dx + dz * dz);
-                dx = dx / length * step;
-                dz = dz / length * step;
-                if (dx != 0 && dz != 0) {
-                    if (dx < 0 && dz > 0) {
-                        direction = GhostModel.DIRECTION_DOWNLEFT;
-                    }
-                    else if (dx < 0 && dz < 0) {
-                        direction = GhostModel.DIRECTION_UPLEFT;
-                    }
-                    else if (dx > 0 && dz > 0) {
-                        direction = GhostModel.DIRECTION_DOWNRIGHT;
-                    }
-                    else {
-                        direction = GhostModel.DIRECTION_UPRIGHT;
-                    }
-                }
-            }
-            else {
-                // No movement if no key pressed
-                return;
-            }
-
-            newX += dx;
-            newZ += dz;
-            // If the new position doesnt collide with a wall
-                // Then accept this move
-            if (!collidesWithWall(newX, newZ)) {
-                moved = true;
-                break;
-            }
+        boolean movingWallsOpen = MovingWallClock.isOpen(System.currentTimeMillis() + wallClockOffset);
+        predicted.x = localPos.x;
+        predicted.z = localPos.z;
+        int result = PlayerMovement.step(predicted, buttons, step, wallGrid, movingWallsOpen, localObstacles);
+
+        boolean sendsInput = serverCaps.contains(Handshake.CAP_INPUT);
+        if (sendsInput && out != null) {
+            inputSeq++;
+            pendingInputs.add(inputSeq, buttons, step, movingWallsOpen);
+            out.println(PlayerMovement.INPUT + " " + inputSeq + " " + buttons);
         }
 
-        if (!moved) {
-            // If no valid movement, play collision sound and exit
+        if (result == PlayerMovement.AT_WALL) return; // walls stop the ghost silently
+        if (result == PlayerMovement.BLOCKED) {
+            // If an npc or the other player is in the way, play collision sound and exit
             if (System.currentTimeMillis() - lastCollisionTime > COLLISION_COOLDOWN) {
                 playWallCollisionSound();
                 lastCollisionTime = System.currentTimeMillis();
@@ -841,69 +1008,81 @@ public class BasicScene extends JPanel implements MouseListener {
             return;
         }
 
-        // Check for collisions with NPCs
-        for (NPC npc : npcs) {
-            Vector3d npcPos = npc.getPosition();
-            if (CollisionDetector.isColliding(
-                    newX, newZ, GhostModel.getCharacterHalf(),
-                    npcPos.x, npcPos.z, NPC.getCharacterHalf())) {
-                if (System.currentTimeMillis() - lastCollisionTime > COLLISION_COOLDOWN) {
-                    playWallCollisionSound();
-                    lastCollisionTime = System.currentTimeMillis();
-                }
-                return;
-            }
+        moveLocalGhost(predicted.x, predicted.z, predicted.direction);
+        if (!sendsInput && pump != null) {
+            // only the newest position is sent on the next pump cycle
+            pump.sendPosition(playerId + " " + predicted.x + " " + 0.1 + " " + predicted.z + " " + predicted.direction);
         }
 
-        // Check for collisions with the other player
-        Vector3d otherPlayerPos = (playerId == 1) ? blueBoxPos : redBoxPos;
-        if (CollisionDetector.isColliding(
-                newX, newZ, GhostModel.getCharacterHalf(),
-                otherPlayerPos.x, otherPlayerPos.z, GhostModel.getCharacterHalf())) {
-            if (System.currentTimeMillis() - lastCollisionTime > COLLISION_COOLDOWN) {
-                playWallCollisionSound();
-                lastCollisionTime = System.currentTimeMillis();
-            }
-            return;
+        if (System.currentTimeMillis() - lastFootstepTime > FOOTSTEP_COOLDOWN) {
+            playFootstepSound();
+            lastFootstepTime = System.currentTimeMillis();
         }
+    }
 
-        // Update position if no collisions occurred
+    // Applies the newest state acknowledged by the server and replays the inputs it has not seen yet
+        // The ghost only jumps when the replayed position differs from the prediction
+    private void reconcile() {
+        String stateLine = latestState.getAndSet(null);
+        if (stateLine == null) return;
+        String[] tokens = stateLine.split(" ");
+        PlayerMovement.State state = acknowledged;
+        int ackedSeq = Integer.parseInt(tokens[1]);
+        state.x = Double.parseDouble(tokens[2]);
+        state.z = Double.parseDouble(tokens[3]);
+        state.direction = Integer.parseInt(tokens[4]);
+
+        pendingInputs.dropThrough(ackedSeq);
+        pendingInputs.replay(state, wallGrid, localObstacles);
+        Vector3d localPos = (playerId == 1) ? redBoxPos : blueBoxPos;
+        if (Math.abs(state.x - localPos.x) > RECONCILE_EPSILON || Math.abs(state.z - localPos.z) > RECONCILE_EPSILON) {
+            moveLocalGhost(state.x, state.z, state.direction);
+        }
+    }
+
+    // Moves the local ghost and everything that follows it
+    private void moveLocalGhost(double x, double z, int direction) {
         if (playerId == 1) {
-            redBoxPos.x = newX;
-            redBoxPos.z = newZ;
+            redBoxPos.x = x;
+            redBoxPos.z = z;
             treasureKeyBehavior.updateRedPosition(redBoxPos);
-            redGhost.updatePositionAndRotation(newX, newZ, direction);
+            redGhost.updatePositionAndRotation(x, z, direction);
         }
         else {
-            blueBoxPos.x = newX;
-            blueBoxPos.z = newZ;
+            blueBoxPos.x = x;
+            blueBoxPos.z = z;
             treasureKeyBehavior.updateBluePosition(blueBoxPos);
-            blueGhost.updatePositionAndRotation(newX, newZ, direction);
+            blueGhost.updatePositionAndRotation(x, z, direction);
         }
-
-        if (out != null) {
-            out.println(playerId + " " + newX + " " + 0.1 + " " + newZ + " " + direction);
-        }
-
         updateCamera();
         updateSpotlight();
-        if ((dx != 0 || dz != 0) && (System.currentTimeMillis() - lastFootstepTime > FOOTSTEP_COOLDOWN)) {
-            playFootstepSound();
-            lastFootstepTime = System.currentTimeMillis();
+    }
+
+    // True if the local ghost at (x, z) would overlap an npc or the other player
+    private boolean blockedByOthers(double x, double z) {
+        for (int i = 0; i < npcStore.size(); i++) {
+            if (CollisionDetector.isColliding(
+                    x, z, GhostModel.getCharacterHalf(),
+                    npcStore.getX(i), npcStore.getZ(i), NPC.getCharacterHalf())) {
+                return true;
+            }
         }
+        Vector3d otherPlayerPos = (playerId == 1) ? blueBoxPos : redBoxPos;
+        return CollisionDetector.isColliding(
+                x, z, GhostModel.getCharacterHalf(),
+                otherPlayerPos.x, otherPlayerPos.z, GhostModel.getCharacterHalf());
     }
 
     // Moves the camera above and behind the current player
     private void updateCamera() {
         if(gameEnded) return;
         Vector3d localPos = (playerId == 1) ? redBoxPos : blueBoxPos;
-        Point3d eye = new Point3d(localPos.x, localPos.y + 0.6, localPos.z + 0.5);
-        Point3d center = new Point3d(localPos.x, localPos.y, localPos.z);
-        Vector3d up = new Vector3d(0, 0, -1);
-        Transform3D viewTransform = new Transform3D();
-        viewTransform.lookAt(eye, center, up);
+        cameraEye.set(localPos.x, localPos.y + 0.6, localPos.z + 0.5);
+        cameraCenter.set(localPos.x, localPos.y, localPos.z);
+        viewTransform.lookAt(cameraEye, cameraCenter, cameraUp);
         viewTransform.invert();
         universe.getViewingPlatform().getViewPlatformTransform().setTransform(viewTransform);
+        mazeChunks.showAround(localPos.x, localPos.z, VIEW_RADIUS);
 
         // Update fan blade LOD positions
         updateFanLODPositions();
@@ -912,8 +1091,7 @@ public class BasicScene extends JPanel implements MouseListener {
     // Moves spotlight position to follow the current player
     private void updateSpotlight() {
         Vector3d localPos = (playerId == 1) ? redBoxPos : blueBoxPos;
-        Transform3D spotlightTransform = new Transform3D();
-        Vector3d spotlightPos = new Vector3d(localPos.x, 0.8, localPos.z);
+        spotlightPos.set(localPos.x, 0.8, localPos.z);
         spotlightTransform.setTranslation(spotlightPos);
         spotlightTG.setTransform(spotlightTransform);
     }
@@ -923,9 +1101,6 @@ public class BasicScene extends JPanel implements MouseListener {
         // Get the player position based on playerId
         Vector3d playerPos = (playerId == 1) ? redBoxPos : blueBoxPos;
 
-        // Calculate the position of the fan (at center with cylinder)
-        Vector3d fanPosition = new Vector3d(0.03, 0.1, 0.03);
-
         // Find only fan related DistanceLOD behaviors and update them
         if (rootBG != null) {
             // Look for fan LOD behaviors specifically
@@ -952,7 +1127,7 @@ public class BasicScene extends JPanel implements MouseListener {
     private void updateFanLODInGroup(Node node, Vector3d viewerPosition) {
         if (node instanceof DistanceLOD) {
             // Update the LOD's position
-            LODHelper.updateLODPosition((DistanceLOD) node, viewerPosition);
+            LODHelper.updateLODPosition((DistanceLOD) node, viewerPosition, fanLodPosition);
         } else if (node instanceof Group) {
             Group group = (Group) node;
             // Search all children
@@ -962,49 +1137,14 @@ public class BasicScene extends JPanel implements MouseListener {
         }
     }
 
-    // Checks if player collides with maze wall
-    // Ignores moving walls when fully 'open'
-    private boolean collidesWithWall(double x, double z) {
-        double half = GhostModel.getCharacterHalf();
-        double side = 2 * half;
-        Rectangle2D.Double boxRect = new Rectangle2D.Double(x - half, z - half, side, side);
-        for (Rectangle2D.Double wallRect : wallBounds.keySet()) {
-            Point coords = wallBounds.get(wallRect);
-            if (movingWallAlphas.containsKey(coords)) {
-                float alphaValue = movingWallAlphas.get(coords).value();
-                if (alphaValue > 0.95f) continue;
-            }
-            if (wallRect.intersects(boxRect))
-                return true;
-        }
-        return false;
-    }
-
     //
     private void playFootstepSound() {
-        try {
-            File soundFile = new File("src/ShapeShifters/sounds/footsteps.wav");
-            AudioInputStream audioIn = AudioSystem.getAudioInputStream(soundFile);
-            javax.sound.sampled.Clip clip = AudioSystem.getClip();
-            clip.open(audioIn);
-            clip.start();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        audio.play(AudioManager.FOOTSTEP);
     }
 
-    // Plays footstep sound when player moves around the maze
+    // Plays the bump sound when the player runs into a wall
     private void playWallCollisionSound() {
-        try {
-            File soundFile = new File("src/ShapeShifters/sounds/wallCollide.wav");
-            AudioInputStream audioIn = AudioSystem.getAudioInputStream(soundFile);
-            javax.sound.sampled.Clip clip = AudioSystem.getClip();
-            clip.open(audioIn);
-            clip.start();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
+        audio.play(AudioManager.WALL_COLLISION);
     }
 
     // Adds the "ShapeShifters" floating sign to the NorthWest corner
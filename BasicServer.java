@@ -1,31 +1,33 @@
 package ShapeShifters;
 
-import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
-import org.jogamp.java3d.Appearance;
-import org.jogamp.java3d.Material;
-import org.jogamp.vecmath.Color3f;
-import org.jogamp.vecmath.Vector3d;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class BasicServer {
 
     private static final int PORT = 5001;
-    private static List<ClientHandler> clients = new ArrayList<>();
-    private static int nextPlayerId = 1;
-    private static List<NPC> npcs = new ArrayList<>();
-    private static ArrayList<ArrayList<Integer>> maze;
-    private static int[][] movingWalls = new int[4][2];
-    private static final int MAZE_HEIGHT = 20;
-    private static final int MAZE_WIDTH = 20;
-    private static String treasureMsg;
-    private static GhostModel userGhost;
-    private static Map<Integer, Vector3d> playerPositions = new ConcurrentHashMap<>();
+    private static int mazeSize = 20; // cells per side, --maze=N for large rooms
+    private static final Set<String> SERVER_CAPS = Set.of(
+            Handshake.CAP_NPC_BINARY, Handshake.CAP_WORLD_SEED, Handshake.CAP_MAZE_STREAM, Handshake.CAP_INPUT,
+            Handshake.CAP_PING, Handshake.CAP_WALL_CLOCK);
+
+    // every running match, ticked together by one loop
+    private static final List<MatchRoom> rooms = new CopyOnWriteArrayList<>();
+    private static MatchRoom waitingRoom; // room with a free seat, filled before a new one is made
+    private static int nextRoomId = 1;
+    private static int tickRate = SimulationScheduler.DEFAULT_TICK_RATE;
+    private static SimulationScheduler simulation;
+    private static SplittableRandom roomSeeds = new SplittableRandom(); // --seed=N makes every room reproducible
+    private static ForkJoinPool npcPool; // --parallel[=N] ticks rooms with many npcs on N threads, null otherwise
 
     public static void main(String[] args) {
         // print local IP for reference
@@ -37,295 +39,328 @@ public class BasicServer {
             e.printStackTrace();
         }
 
-        // generate maze and moving wall data
-        MazeManager mazeManager = new MazeManager(MAZE_HEIGHT, MAZE_WIDTH);
-        maze = mazeManager.getMaze();
-        movingWalls = mazeManager.getMovingWalls();
-
-        // find valid positions from open cells
-        List<Vector3d> validPositions = new ArrayList<>();
-        for (int i = 0; i < MAZE_HEIGHT; i++) {
-            for (int j = 0; j < MAZE_WIDTH; j++) {
-                if (maze.get(i).get(j) == 0) {
-                    double x = -1 + i * 0.103;
-                    double z = -1 + j * 0.103;
-                    validPositions.add(new Vector3d(x, 0.1, z));
-                }
-            }
-        }
+        // --virtual runs the simulation and every client on virtual threads
+        boolean virtualThreads = Arrays.asList(args).contains("--virtual");
+        Thread.Builder threads = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform();
 
-        Random rand = new Random();
-        // pick treasure position randomly
-        Vector3d treasurePos = validPositions.get(rand.nextInt(validPositions.size()));
-        treasureMsg = "TREASURE " + treasurePos.x + " " + treasurePos.y + " " + treasurePos.z;
-        validPositions.remove(treasurePos);
-
-        // create green NPCs from valid positions
-        Appearance npcAppearance = new Appearance();
-        npcAppearance.setMaterial(new Material(
-                new Color3f(0.0f, 1.0f, 0.0f),
-                new Color3f(0.0f, 0.0f, 0.0f),
-                new Color3f(0.0f, 1.0f, 0.0f),
-                new Color3f(1.0f, 1.0f, 1.0f),
-                64.0f));
-        int npcCount = 3;
-        for (int i = 0; i < npcCount; i++) {
-            if (validPositions.isEmpty()) break;
-            NPC npc = NPC.generateRandomNPC(validPositions, npcAppearance, 0.005);
-            npcs.add(npc);
+        for (String arg : args) {
+            if (arg.startsWith("--seed=")) {
+                roomSeeds = new SplittableRandom(Long.parseLong(arg.substring("--seed=".length())));
+            }
+            else if (arg.startsWith("--maze=")) {
+                mazeSize = Integer.parseInt(arg.substring("--maze=".length()));
+            }
+            else if (arg.equals("--parallel")) {
+                npcPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            }
+            else if (arg.startsWith("--parallel=")) {
+                npcPool = new ForkJoinPool(Integer.parseInt(arg.substring("--parallel=".length())));
+            }
         }
 
-        // set up user ghost model
-        userGhost = new GhostModel(true, new Vector3d(0.0, 0.1, 0.0));
-
-        // npc update loop with collisions
-        new Thread(() -> {
-            while (true) {
-                for (NPC npc : npcs) {
-                    // check collision with maze walls
-                    npc.update((x, z) -> {
-                        double half = 0.03;
-                        double side = 2 * half;
-
-                        // create bounding box around NPC at (x, z)
-                        Rectangle2D.Double npcRect = new Rectangle2D.Double(x - half, z - half, side, side);
-
-                        for (int i = 0; i < MAZE_HEIGHT; i++) {
-                            for (int j = 0; j < MAZE_WIDTH; j++) {
-                                if (maze.get(i).get(j) == 1) { // if cell is a wall
-                                    double wx = -1 + i * 0.103; // convert grid to world x
-                                    double wz = -1 + j * 0.103; // convert grid to world z
-
-                                    double left = wx - 0.055; // wall left edge in world coords
-                                    double top = wz + 0.055;  // wall top edge in world coords
-
-                                    // define wall's bounding box in world space
-                                    Rectangle2D.Double wallRect = new Rectangle2D.Double(left, top - 0.11, 0.11, 0.11);
-
-                                    // check for collision between NPC and wall
-                                    if (npcRect.intersects(wallRect)) return true;
-                                }
-                            }
-                        }
-                        return false; // no collision
-                    }, userGhost);
-
-                    // check collision with players
-                    Vector3d npcPos = npc.getPosition();
-                    double npcHalf = NPC.getCharacterHalf();
-                    for (Map.Entry<Integer, Vector3d> entry : playerPositions.entrySet()) {
-                        Vector3d playerPos = entry.getValue();
-                        double playerHalf = GhostModel.getCharacterHalf();
-
-                        if (CollisionDetector.isColliding(npcPos.x, npcPos.z, npcHalf,
-                                playerPos.x, playerPos.z, playerHalf)) {
-
-                            // get normalized direction from player to npc
-                            Vector3d collisionNormal = new Vector3d(
-                                    npcPos.x - playerPos.x,
-                                    0,
-                                    npcPos.z - playerPos.z
-                            );
-                            collisionNormal.normalize();
-
-                            double bounceFactor = 1.5; // scale amount of displacement
-
-                            // compute new npc position pushed away from player
-                            Vector3d newNPCPos = new Vector3d(
-                                    npcPos.x + collisionNormal.x * npc.getStep() * bounceFactor,
-                                    0.1,
-                                    npcPos.z + collisionNormal.z * npc.getStep() * bounceFactor
-                            );
-
-                            // reflect and randomize npc direction slightly
-                            Vector3d newDirection = new Vector3d(
-                                    -npc.getDirection().x + (Math.random() * 0.2 - 0.1),
-                                    0,
-                                    -npc.getDirection().z + (Math.random() * 0.2 - 0.1)
-                            );
-                            newDirection.normalize();
-
-                            npc.setDirection(newDirection); // apply new direction
-                            npc.setPosition(newNPCPos);     // apply new position
-                        }
-                    }
-                }
-
-                // check collision between npcs
-                for (int i = 0; i < npcs.size(); i++) {
-                    for (int j = i + 1; j < npcs.size(); j++) {
-                        NPC npc1 = npcs.get(i);
-                        NPC npc2 = npcs.get(j);
-                        Vector3d pos1 = npc1.getPosition();
-                        Vector3d pos2 = npc2.getPosition();
-
-                        // check if npc1 and npc2 are colliding
-                        if (CollisionDetector.isColliding(pos1.x, pos1.z, NPC.getCharacterHalf(),
-                                pos2.x, pos2.z, NPC.getCharacterHalf())) {
-
-                            // get direction vector from npc1 to npc2
-                            Vector3d dir1To2 = new Vector3d();
-                            dir1To2.sub(pos2, pos1);
-                            dir1To2.normalize();
-
-                            // move npc1 slightly away from npc2
-                            Vector3d newPos1 = new Vector3d(
-                                    pos1.x - dir1To2.x * npc1.getStep(),
-                                    0.1,
-                                    pos1.z - dir1To2.z * npc1.getStep()
-                            );
-
-                            // move npc2 slightly away from npc1
-                            Vector3d newPos2 = new Vector3d(
-                                    pos2.x + dir1To2.x * npc2.getStep(),
-                                    0.1,
-                                    pos2.z + dir1To2.z * npc2.getStep()
-                            );
-
-                            // reverse directions of both npcs
-                            npc1.setDirection(new Vector3d(-npc1.getDirection().x, 0, -npc1.getDirection().z));
-                            npc2.setDirection(new Vector3d(-npc2.getDirection().x, 0, -npc2.getDirection().z));
-
-                            // apply new positions
-                            npc1.setPosition(newPos1);
-                            npc2.setPosition(newPos2);
-                        }
-                    }
-                }
-
-
-                broadcastNPCPositions(); // send npc data to clients
-
+        // one fixed rate scheduler ticks the npcs of every room
+        tickRate = SimulationScheduler.tickRateFromArgs(args);
+        simulation = new SimulationScheduler(tickRate, () -> {
+            for (MatchRoom room : rooms) {
                 try {
-                    Thread.sleep(50); // wait before next update
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    room.tick();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // one broken match must not stop the others
                 }
             }
-        }).start();
+        }, threads.factory());
+        simulation.start();
 
-        System.out.println("Server starting on port " + PORT);
+        // tick phases, traffic and queue depths over JMX and, with --metrics=PORT, HTTP
+        try {
+            new ServerMetrics(simulation, rooms).start(ServerMetrics.portFromArgs(args));
+        } catch (IOException e) {
+            System.err.println("Metrics endpoint not started: " + e.getMessage());
+        }
+
+        System.out.println("Server starting on port " + PORT + ", simulation at " + tickRate + " Hz"
+                + (npcPool != null ? ", npcs on " + npcPool.getParallelism() + " threads" : ""));
+        if (Arrays.asList(args).contains("--nio")) {
+            // single selector thread for every client
+            try {
+                new NioServer(PORT).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept(); // wait for client
                 System.out.println("New client connected: " + clientSocket);
-                ClientHandler handler = new ClientHandler(clientSocket, nextPlayerId++);
-                clients.add(handler);
-                new Thread(handler).start(); // start client thread
+                // virtual thread clients write through a queue so broadcasts never block on a socket
+                ClientHandler handler = new ClientHandler(clientSocket, virtualThreads ? threads : null);
+                threads.start(handler); // start client thread, it joins a room after its handshake
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // send npc positions to all clients
-    public static synchronized void broadcastNPCPositions() {
-        StringBuilder npcState = new StringBuilder("NPC_UPDATE");
-        for (int i = 0; i < npcs.size(); i++) {
-            NPC npc = npcs.get(i);
-            Vector3d pos = npc.getPosition();
-            Vector3d dir = npc.getDirection();
-
-            npcState.append(" ").append(i)
-                    .append(" ").append(pos.x)
-                    .append(" ").append(0.1)
-                    .append(" ").append(pos.z)
-                    .append(" ").append(dir.x)
-                    .append(" ").append(dir.z);
-        }
-        for (ClientHandler client : clients) {
-            client.sendMessage(npcState.toString());
+    // lobby, seats the client in the waiting room or opens a new room for it
+    static synchronized MatchRoom joinLobby(ClientSession client) {
+        if (waitingRoom == null || !waitingRoom.join(client)) {
+            waitingRoom = new MatchRoom(nextRoomId++, mazeSize, mazeSize, tickRate, roomSeeds.nextLong(), npcPool);
+            rooms.add(waitingRoom);
+            waitingRoom.join(client);
         }
+        MatchRoom room = waitingRoom;
+        System.out.println("Player " + client.playerId + " joined room " + room.getRoomId());
+        if (!room.isOpen()) waitingRoom = null; // both seats taken, the match runs on its own
+        return room;
+    }
+
+    // drop a room once its last player left
+    static synchronized void closeRoom(MatchRoom room) {
+        if (!room.isEmpty()) return; // someone joined in the meantime
+        rooms.remove(room);
+        if (waitingRoom == room) waitingRoom = null;
+        System.out.println("Room " + room.getRoomId() + " closed");
     }
 
-    // broadcast a message to all clients
-    public static synchronized void broadcast(String message, ClientHandler sender) {
-        for (ClientHandler client : clients) {
-            client.sendMessage(message);
+    // protocol state and message handling shared by every kind of client connection
+    abstract static class ClientSession {
+        protected int playerId; // seat in the room, set when joining
+        private MatchRoom room;
+        private Set<String> caps = Collections.emptySet(); // capabilities agreed in the handshake
+        private volatile int ackedNpcTick = -1; // last binary npc snapshot the client applied
+        private final ServerMetrics.Traffic traffic = new ServerMetrics.Traffic();
+
+        // called by the room while it holds its lock
+        void joined(MatchRoom room, int playerId) {
+            this.room = room;
+            this.playerId = playerId;
+        }
+
+        // queue or write one line to the client
+        public abstract void sendMessage(String message);
+
+        // queue or write the initial game state in order
+            // queued lines are kept even past the limits that drop slow clients, they are sent once per join
+        public void sendInitialState(List<String> lines) {
+            for (String line : lines) {
+                sendMessage(line);
+            }
+        }
+
+        // lines queued for the client but not written yet
+        public abstract int getQueueDepth();
+
+        public ServerMetrics.Traffic getTraffic() {
+            return traffic;
+        }
+
+        // agree on capabilities from the client's HELLO line and answer with WELCOME
+        void negotiate(String hello) {
+            Set<String> agreed = new LinkedHashSet<>(Handshake.parseCaps(hello));
+            agreed.retainAll(SERVER_CAPS);
+            caps = agreed;
+            sendMessage(Handshake.line(Handshake.WELCOME, caps));
+            if (caps.contains(Handshake.CAP_WALL_CLOCK)) {
+                sendMessage(Handshake.WALL_CLOCK + " " + MovingWallClock.phase(System.currentTimeMillis()));
+            }
+        }
+
+        public boolean usesBinaryNpcUpdates() {
+            return caps.contains(Handshake.CAP_NPC_BINARY);
+        }
+
+        public boolean usesWorldSeed() {
+            return caps.contains(Handshake.CAP_WORLD_SEED);
+        }
+
+        public boolean usesMazeStream() {
+            return caps.contains(Handshake.CAP_MAZE_STREAM);
+        }
+
+        public boolean usesInputFrames() {
+            return caps.contains(Handshake.CAP_INPUT);
+        }
+
+        int getAckedNpcTick() {
+            return ackedNpcTick;
+        }
+
+        // handle one line received from the client
+        void handleLine(String line) {
+            traffic.received(line);
+            if (line.startsWith(NpcSnapshotCodec.ACK)) {
+                int tick = Integer.parseInt(line.substring(NpcSnapshotCodec.ACK.length()).trim());
+                if (tick > ackedNpcTick) ackedNpcTick = tick;
+                return;
+            }
+            if (line.startsWith(Handshake.PING + " ")) {
+                sendMessage(Handshake.PONG + line.substring(Handshake.PING.length()));
+                return;
+            }
+            if (line.startsWith("TREASURE_ACTIVATE")) {
+                room.broadcast("TREASURE_MORPH", this);
+                return;
+            }
+            if (line.startsWith("GAME_END")) {
+                room.broadcast(line, this);
+                return;
+            }
+            if (line.startsWith(PlayerMovement.INPUT + " ")) {
+                String[] tokens = line.split(" ");
+                room.applyInput(this, Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+                return;
+            }
+            if (line.startsWith("GREEN") || line.startsWith("BLUE")) {
+                room.setSlowed(this, line.startsWith("GREEN"));
+                room.broadcast(line, this);
+                return;
+            }
+
+            String[] tokens = line.split(" ");
+            if (tokens.length < 4) return;
+
+            int id = Integer.parseInt(tokens[0]);
+            double x = Double.parseDouble(tokens[1]);
+            double y = Double.parseDouble(tokens[2]);
+            double z = Double.parseDouble(tokens[3]);
+            int direction = tokens.length >= 5 ? Integer.parseInt(tokens[4]) : GhostModel.DIRECTION_DOWN;
+            if (room.updatePlayerPosition(this, id, x, y, z, direction)) {
+                room.broadcast(line, this);
+            }
+        }
+
+        // forget the player once the connection is gone
+        void disconnected() {
+            if (room != null && room.leave(this)) {
+                closeRoom(room);
+            }
         }
     }
 
-    // client handler logic
-    static class ClientHandler implements Runnable {
+    // blocking client handler, one thread per client
+        // with a writer thread factory, output goes through a bounded queue drained by its own thread
+    static class ClientHandler extends ClientSession implements Runnable {
+        private static final int OUTBOUND_CAPACITY = 256;
+
         private Socket socket;
         private PrintWriter out;
         private BufferedReader in;
-        private int playerId;
+        private final Thread.Builder writerThreads;
+        private OutboundQueue outbound;
+
+        public ClientHandler(Socket socket) {
+            this(socket, null);
+        }
 
-        public ClientHandler(Socket socket, int playerId) {
+        public ClientHandler(Socket socket, Thread.Builder writerThreads) {
             this.socket = socket;
-            this.playerId = playerId;
+            this.writerThreads = writerThreads;
             try {
-                out = new PrintWriter(socket.getOutputStream(), true);
+                if (writerThreads != null) {
+                    outbound = new OutboundQueue(OUTBOUND_CAPACITY);
+                    out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+                }
+                else {
+                    out = new PrintWriter(socket.getOutputStream(), true);
+                }
                 in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out.println("ID " + playerId); // send player id
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
-                StringBuilder mazeStr = new StringBuilder();
-                for (ArrayList<Integer> row : maze) {
-                    for (Integer cell : row) {
-                        mazeStr.append(cell);
+        // writes queued lines in batches with one flush each
+        private void drainOutbound() {
+            List<String> batch = new ArrayList<>();
+            try {
+                while (outbound.takeAll(batch)) {
+                    for (String message : batch) {
+                        out.println(message);
                     }
+                    batch.clear();
+                    out.flush();
+                    if (out.checkError()) break; // socket closed
                 }
-                out.println(mazeStr.toString()); // send maze
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
 
-                for (int[] coords : movingWalls) {
-                    out.println(coords[0] + " " + coords[1]); // send moving wall
+        // negotiate capabilities, the initial game state is sent when joining a room
+            // returns a first line that was not a HELLO so it can still be handled
+        private String handshake() throws IOException {
+            String first = null;
+            socket.setSoTimeout(Handshake.HELLO_TIMEOUT_MS);
+            try {
+                first = in.readLine();
+                if (first != null && first.startsWith(Handshake.HELLO)) {
+                    negotiate(first);
+                    first = null;
                 }
+            } catch (SocketTimeoutException e) {
+                // older client that never says hello, keep the text protocol
+            }
+            socket.setSoTimeout(0);
+            return first;
+        }
 
-                out.println("NPC_COUNT " + npcs.size());
-                for (NPC npc : npcs) {
-                    Vector3d pos = npc.getPosition();
-                    out.println("NPC_INIT " + pos.x + " " + pos.z + " 0 0");
-                }
+        @Override
+        public void sendMessage(String message) {
+            getTraffic().sent(message);
+            if (outbound == null) {
+                out.println(message);
+                return;
+            }
+            if (!outbound.offer(message)) {
+                // too far behind, closing the socket ends the reader loop
+                System.out.println("Dropping client " + playerId + ", outbound queue full");
+                try {
+                    socket.close();
+                } catch (IOException e) { /* ignore */ }
+            }
+        }
 
-                out.println(treasureMsg); // send treasure info
-            } catch (IOException e) {
-                e.printStackTrace();
+        @Override
+        public void sendInitialState(List<String> lines) {
+            if (outbound == null) {
+                super.sendInitialState(lines);
+                return;
+            }
+            for (String line : lines) {
+                getTraffic().sent(line);
             }
+            outbound.offerBurst(lines);
         }
 
-        public void sendMessage(String message) {
-            out.println(message);
+        @Override
+        public int getQueueDepth() {
+            return outbound == null ? 0 : outbound.size();
         }
 
         @Override
         // run server
         public void run() {
             String line;
+            if (outbound != null) {
+                writerThreads.start(this::drainOutbound);
+            }
             try {
+                line = handshake();
+                joinLobby(this);
+                if (line != null) handleLine(line);
                 while ((line = in.readLine()) != null) {
-                    if (line.startsWith("TREASURE_ACTIVATE")) {
-                        broadcast("TREASURE_MORPH", this);
-                        continue;
-                    }
-                    if (line.startsWith("GAME_END")) {
-                        broadcast(line, this);
-                        continue;
-                    }
-                    if (line.startsWith("GREEN") || line.startsWith("BLUE")) {
-                        broadcast(line, this);
-                        continue;
-                    }
-
-                    String[] tokens = line.split(" ");
-                    if (tokens.length < 4) continue;
-
-                    int id = Integer.parseInt(tokens[0]);
-                    double x = Double.parseDouble(tokens[1]);
-                    double y = Double.parseDouble(tokens[2]);
-                    double z = Double.parseDouble(tokens[3]);
-                    playerPositions.put(id, new Vector3d(x, y, z)); // update player position
-
-                    broadcast(line, this);
+                    handleLine(line);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
-                playerPositions.remove(playerId); // remove player on disconnect
+                disconnected();
+                if (outbound != null) outbound.close();
                 try {
                     socket.close();
                 } catch (IOException e) { /* ignore */ }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package ShapeShifters;
 
-import org.jogamp.vecmath.Vector3d;
-
 // Initializes the CollisionDetector class
 public class CollisionDetector {
     // Checks if 2 objects are colliding with AABB collision detection
@@ -15,8 +13,7 @@ public class CollisionDetector {
 
     // Checks if an NPC collides with the player/user
     public static boolean collidesWithUser(double x, double z, double npcHalf, GhostModel user) {
-        Vector3d userPos = user.getPosition();
         double ghostHalf = GhostModel.getCharacterHalf();
-        return isColliding(x, z, npcHalf, userPos.x, userPos.z, ghostHalf);
+        return isColliding(x, z, npcHalf, user.getX(), user.getZ(), ghostHalf);
     }
 }
\ No newline at end of file
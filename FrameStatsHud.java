@@ -0,0 +1,192 @@
+package ShapeShifters;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jogamp.java3d.J3DGraphics2D;
+
+// Frame time and network latency of the client, drawn over the Canvas3D and optionally traced to a CSV file
+    // Frames are counted when the canvas swaps, FPS and frame time percentiles cover the last FRAME_WINDOW frames
+    // RTT comes from PING lines answered with PONG by servers that agreed on Handshake.CAP_PING
+    // Apply lag is the time from reading an NPC_UPDATE off the socket to the end of the first frame drawn after it
+    // -Dshapeshifters.hud=true shows the overlay from the start, F3 toggles it
+    // -Dshapeshifters.frameTrace=<file> writes one CSV row per frame
+public class FrameStatsHud {
+    private static final int FRAME_WINDOW = 240;
+    private static final long REFRESH_NANOS = 250_000_000L; // overlay text is rebuilt 4 times a second
+    private static final long TRACE_FLUSH_NANOS = 1_000_000_000L;
+    private static final String TRACE_HEADER = "frame,time_ms,frame_ms,rtt_ms,apply_lag_ms";
+
+    private volatile boolean visible;
+    private BufferedWriter trace; // null when not tracing, guarded by this
+
+    // render thread only
+    private final long[] frameNanos = new long[FRAME_WINDOW]; // ring of the latest frame times
+    private final long[] sorted = new long[FRAME_WINDOW];
+    private int frames = 0;
+    private long lastSwap = 0;
+    private long lastRefresh = 0;
+    private long lastTraceFlush = 0;
+    private long lastApplyLag = 0;
+    private String[] lines = {"waiting for frames"};
+    private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private final Color background = new Color(0, 0, 0, 160);
+
+    // written by the network reader
+    private final AtomicLong pendingUpdate = new AtomicLong(); // receive time of the oldest update not drawn yet, 0 if none
+    private volatile long rttNanos = -1;
+
+    public FrameStatsHud(boolean visible, String traceFile) {
+        this.visible = visible;
+        this.trace = openTrace(traceFile);
+    }
+
+    // Reads -Dshapeshifters.hud and -Dshapeshifters.frameTrace
+    public static FrameStatsHud fromProperties() {
+        return new FrameStatsHud(Boolean.getBoolean("shapeshifters.hud"), System.getProperty("shapeshifters.frameTrace"));
+    }
+
+    private static BufferedWriter openTrace(String traceFile) {
+        if (traceFile == null || traceFile.isEmpty()) return null;
+        try {
+            BufferedWriter writer = Files.newBufferedWriter(Paths.get(traceFile), StandardCharsets.UTF_8);
+            writer.write(TRACE_HEADER);
+            writer.newLine();
+            System.out.println("Tracing frames to " + traceFile);
+            return writer;
+        } catch (IOException e) {
+            System.err.println("Frame trace not written: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void toggle() {
+        visible = !visible;
+    }
+
+    // Line sent to measure the round trip, the server echoes the token back in a PONG
+    public static String pingLine(long nanos) {
+        return Handshake.PING + " " + nanos;
+    }
+
+    // Called by the network reader for every PONG line
+    public void pongReceived(String line) {
+        long sentAt = Long.parseLong(line.substring(Handshake.PONG.length()).trim());
+        rttNanos = System.nanoTime() - sentAt;
+    }
+
+    // Called by the network reader once an NPC update is buffered, with the time its line was read
+    public void npcUpdateReceived(long receivedAt) {
+        pendingUpdate.compareAndSet(0, receivedAt);
+    }
+
+    // Called by the canvas after every buffer swap
+    public void frameSwapped() {
+        long now = System.nanoTime();
+        long frameTime = lastSwap == 0 ? 0 : now - lastSwap;
+        lastSwap = now;
+        if (frameTime > 0) {
+            frameNanos[frames % FRAME_WINDOW] = frameTime;
+            frames++;
+        }
+
+        long received = pendingUpdate.getAndSet(0);
+        long applyLag = received == 0 ? -1 : now - received;
+        if (applyLag >= 0) lastApplyLag = applyLag;
+
+        writeTrace(now, frameTime, applyLag);
+    }
+
+    private synchronized void writeTrace(long now, long frameTime, long applyLag) {
+        if (trace == null) return;
+        try {
+            trace.write(String.format(Locale.ROOT, "%d,%.3f,%.3f,%s,%s", frames, now / 1e6, frameTime / 1e6,
+                    millisOrEmpty(rttNanos), millisOrEmpty(applyLag)));
+            trace.newLine();
+            if (now - lastTraceFlush >= TRACE_FLUSH_NANOS) {
+                trace.flush();
+                lastTraceFlush = now;
+            }
+        } catch (IOException e) {
+            System.err.println("Frame trace stopped: " + e.getMessage());
+            closeTrace();
+        }
+    }
+
+    private static String millisOrEmpty(long nanos) {
+        return nanos < 0 ? "" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    // Flushes and closes the trace file, later frames are not traced
+    public synchronized void closeTrace() {
+        if (trace == null) return;
+        try {
+            trace.close();
+        } catch (IOException e) { /* ignore */ }
+        trace = null;
+    }
+
+    // Draws the overlay in the top left corner, called by the canvas after rendering each frame
+    public void draw(J3DGraphics2D g) {
+        if (!visible || g == null) return;
+        long now = System.nanoTime();
+        if (now - lastRefresh >= REFRESH_NANOS) {
+            lines = buildLines();
+            lastRefresh = now;
+        }
+
+        g.setFont(font);
+        FontMetrics metrics = g.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        g.setColor(background);
+        g.fillRect(4, 4, width + 12, lines.length * lineHeight + 8);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 10, 8 + metrics.getAscent() + i * lineHeight);
+        }
+        g.flush(false);
+    }
+
+    // Text of the overlay from the frames in the window and the latest network samples
+    private String[] buildLines() {
+        int n = Math.min(frames, FRAME_WINDOW);
+        if (n == 0) return new String[] {"waiting for frames"};
+        System.arraycopy(frameNanos, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += sorted[i];
+        }
+
+        long rtt = rttNanos;
+        return new String[] {
+                String.format(Locale.ROOT, "FPS %.1f", n * 1e9 / total),
+                String.format(Locale.ROOT, "frame p50 %.1f  p95 %.1f  p99 %.1f  max %.1f ms",
+                        percentile(n, 50) / 1e6, percentile(n, 95) / 1e6, percentile(n, 99) / 1e6, sorted[n - 1] / 1e6),
+                rtt < 0 ? "RTT n/a" : String.format(Locale.ROOT, "RTT %.1f ms", rtt / 1e6),
+                String.format(Locale.ROOT, "NPC update apply lag %.1f ms", lastApplyLag / 1e6)
+        };
+    }
+
+    // Nearest rank percentile of the sorted window
+    private long percentile(int n, double percentile) {
+        int rank = (int) Math.ceil(n * percentile / 100.0);
+        return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+    }
+}
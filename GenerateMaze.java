@@ -1,96 +1,140 @@
 package ShapeShifters;
 
-import java.util.*;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Generates mazes with a randomized depth first search
+    // The search keeps its own stack so very large mazes do not overflow the thread stack
+    // Cells live in a row-major byte array: 0 = passage, 1 = wall
+    // Each generator owns its random source, use one per thread or match room
 public class GenerateMaze {
-    // Grid representing the maze: 0 = passage, 1 = wall
-    public static ArrayList<ArrayList<Integer>> grid;
-    public static int m; // height of grid (excluding border)
-    public static int n; // width of grid (excluding border)
-
-    // possible moves
-    public static int[][] moves = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
-
-    // Generates and returns the maze with outer walls
-    public static ArrayList<ArrayList<Integer>> getMaze(int height, int width) {
-        height -= 2; // exclude border
-        width -= 2;
-
-        grid = new ArrayList<>();
-        m = height;
-        n = width;
-
-        // Initialize grid with all walls
-        for (int i = 0; i < m; i++) {
-            grid.add(new ArrayList<Integer>());
-            for (int j = 0; j < n; j++) {
-                grid.get(i).add(1);
+    public static final byte PASSAGE = 0;
+    public static final byte WALL = 1;
+
+    private static final byte BORDER = 3; // outer wall while carving, never carved through, low bit set like WALL
+
+    // every order of the 4 moves, packed 2 bits per move with a stop bit above the last one
+    private static final int[] MOVE_ORDERS = new int[24];
+
+    static {
+        int k = 0;
+        for (int a = 0; a < 4; a++) {
+            for (int b = 0; b < 4; b++) {
+                for (int c = 0; c < 4; c++) {
+                    int d = 6 - a - b - c;
+                    if (a == b || a == c || b == c || d < 0 || d > 3 || d == a || d == b || d == c) continue;
+                    MOVE_ORDERS[k++] = a | (b << 2) | (c << 4) | (d << 6) | (1 << 8);
+                }
             }
         }
+    }
 
-        dfs(0, 0); // Start DFS from top-left
-
-        // Add top and bottom border rows
-        grid.add(new ArrayList<Integer>());
-        grid.addFirst(new ArrayList<Integer>());
+    private final SplittableRandom random;
 
-        // Add left and right wall to each row
-        for (int i = 0; i < grid.size(); i++) {
-            grid.get(i).add(0, 1);
-            grid.get(i).add(1);
-        }
+    public GenerateMaze() {
+        this(new SplittableRandom());
+    }
 
-        // Fill in top and bottom borders with wall
-        for (int i = 0; i < n; i++) {
-            grid.get(0).add(1);
-            grid.get(grid.size() - 1).add(1);
-        }
+    public GenerateMaze(long seed) {
+        this(new SplittableRandom(seed));
+    }
 
-        return grid;
+    public GenerateMaze(SplittableRandom random) {
+        this.random = random;
     }
 
-    // Recursive DFS to carve paths in the maze
-    public static void dfs(int i, int j) {
-        grid.get(i).set(j, 0); // Mark current cell as path
+    // Generates the maze with outer walls, returned as height * width cells in row-major order
+    public byte[] generate(int height, int width) {
+        byte[] cells = new byte[height * width];
+        Arrays.fill(cells, WALL);
+        if (height <= 2 || width <= 2) return cells;
 
-        for (int[] neighbor : neighbors(i, j)) {
-            // Skip if carving here would connect multiple paths
-            if (numPathsBordering(neighbor[0], neighbor[1]) > 1) continue;
-            dfs(neighbor[0], neighbor[1]);
+        // the border is marked so the search never needs bounds checks
+        for (int j = 0; j < width; j++) {
+            cells[j] = BORDER;
+            cells[(height - 1) * width + j] = BORDER;
+        }
+        for (int i = 0; i < height; i++) {
+            cells[i * width] = BORDER;
+            cells[i * width + width - 1] = BORDER;
         }
+
+        carve(cells, width, width + 1); // start from the top-left inner cell
+
+        for (int k = 0; k < cells.length; k++) {
+            if (cells[k] == BORDER) cells[k] = WALL;
+        }
+        return cells;
     }
 
-    // Returns shuffled list of valid neighboring cells
-    public static ArrayList<int[]> neighbors(int i, int j) {
-        ArrayList<int[]> ans = new ArrayList<>();
-        for (int[] move : moves) {
-            int newI = i + move[0];
-            int newJ = j + move[1];
-            if (newI >= 0 && newI < m && newJ >= 0 && newJ < n) {
-                ans.add(new int[] { newI, newJ });
+    // Depth first search with an explicit stack
+        // Each frame is a cell and the moves it has left to try
+    private void carve(byte[] cells, int width, int start) {
+        int[] offsets = {width, -width, 1, -1}; // down, up, right, left
+        int[] stackCell = new int[1024];
+        int[] stackMoves = new int[1024];
+        int top = 0;
+
+        cells[start] = PASSAGE; // mark start cell as path
+        stackCell[0] = start;
+        stackMoves[0] = MOVE_ORDERS[random.nextInt(MOVE_ORDERS.length)];
+
+        while (top >= 0) {
+            int moves = stackMoves[top];
+            if (moves == 1) {
+                top--; // every move tried, back up
+                continue;
             }
+            stackMoves[top] = moves >>> 2;
+            int next = stackCell[top] + offsets[moves & 3];
+            if (cells[next] == BORDER) continue;
+            // skip if carving here would connect multiple paths
+            if (numPathsBordering(cells, width, next) > 1) continue;
+
+            top++;
+            if (top == stackCell.length) {
+                stackCell = Arrays.copyOf(stackCell, top * 2);
+                stackMoves = Arrays.copyOf(stackMoves, top * 2);
+            }
+            cells[next] = PASSAGE;
+            stackCell[top] = next;
+            stackMoves[top] = MOVE_ORDERS[random.nextInt(MOVE_ORDERS.length)];
         }
-        Collections.shuffle(ans); // randomize neighbor order
-        return ans;
     }
 
-    // Counts how many neighboring cells are already paths
-    public static int numPathsBordering(int i, int j) {
-        int ans = 0;
-        for (int[] cell : neighbors(i, j)) {
-            ans += 1 - grid.get(cell[0]).get(cell[1]);
+    // Counts how many neighboring cells are already paths, border cells never are
+        // Walls and border both have the low bit set, so this needs no branches
+    private static int numPathsBordering(byte[] cells, int width, int cell) {
+        return 4 - ((cells[cell - width] & 1) + (cells[cell + width] & 1) + (cells[cell - 1] & 1) + (cells[cell + 1] & 1));
+    }
+
+    // Converts a byte grid to the nested list layout used by older code
+    public static ArrayList<ArrayList<Integer>> toList(byte[] cells, int height, int width) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<>(height);
+        for (int i = 0; i < height; i++) {
+            ArrayList<Integer> row = new ArrayList<>(width);
+            for (int j = 0; j < width; j++) {
+                row.add((int) cells[i * width + j]);
+            }
+            rows.add(row);
         }
-        return ans;
+        return rows;
+    }
+
+    // Generates and returns the maze with outer walls as nested lists
+    public static ArrayList<ArrayList<Integer>> getMaze(int height, int width) {
+        return toList(new GenerateMaze().generate(height, width), height, width);
     }
 
     // Generates and prints a 20x20 maze
     public static void main(String[] args) {
-        var g = GenerateMaze.getMaze(20, 20);
-        for (ArrayList<Integer> row : grid) {
-            for (Integer x : row) {
-                System.out.printf("%d", x);
+        byte[] cells = new GenerateMaze().generate(20, 20);
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 20; j++) {
+                System.out.printf("%d", cells[i * 20 + j]);
             }
             System.out.println();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package ShapeShifters;
 
 import org.jogamp.java3d.*;
-import org.jogamp.java3d.loaders.Scene;
 import org.jogamp.java3d.loaders.objectfile.ObjectFile;
 import org.jogamp.vecmath.*;
 
@@ -11,7 +10,7 @@ public class GhostModel {
     // constants
     private static final double MODEL_SCALE = 0.05;
     private static final String MODEL_PATH = "src/ShapeShifters/assets/ghost.obj";
-    private static final double CHARACTER_HALF = 0.025;
+    private static final double CHARACTER_HALF = PlayerMovement.PLAYER_HALF;
 
     // direction values for movements
     public static final int DIRECTION_DOWN = 0;
@@ -33,6 +32,10 @@ public class GhostModel {
     private int currentDirection = DIRECTION_DOWN;
     public double step = .01;
 
+    // reused for every move so the ghost does not allocate per frame, setTransform copies them
+    private final Transform3D positionTransform = new Transform3D();
+    private final Transform3D rotationTransform = new Transform3D();
+
     // set up model
     public GhostModel(boolean isRedPlayer, Vector3d initialPosition) {
         this.isRedPlayer = isRedPlayer;
@@ -62,7 +65,7 @@ public class GhostModel {
     // update rotation based on movement direction
     public void updateRotation(int direction) {
         currentDirection = direction;
-        Transform3D rotationTransform = new Transform3D();
+        rotationTransform.setIdentity();
 
         switch (direction) {
             case DIRECTION_LEFT:
@@ -97,10 +100,7 @@ public class GhostModel {
     // load ghost model
     private void loadModel() {
         try {
-            ObjectFile loader = new ObjectFile(ObjectFile.RESIZE);
-            loader.setFlags(ObjectFile.RESIZE | ObjectFile.TRIANGULATE | ObjectFile.STRIPIFY);
-            Scene modelScene = loader.load(MODEL_PATH);
-            BranchGroup modelBG = modelScene.getSceneGroup();
+            BranchGroup modelBG = ModelCache.load(MODEL_PATH, ObjectFile.RESIZE | ObjectFile.TRIANGULATE | ObjectFile.STRIPIFY);
 
             // apply appearance
             Appearance coloredAppearance = new Appearance();
@@ -147,9 +147,8 @@ public class GhostModel {
         position.x = newX;
         position.z = newZ;
 
-        Transform3D newTransform = new Transform3D();
-        newTransform.setTranslation(position);
-        modelRootTG.setTransform(newTransform);
+        positionTransform.setTranslation(position);
+        modelRootTG.setTransform(positionTransform);
     }
 
     // Updates both pos and direction
@@ -157,9 +156,8 @@ public class GhostModel {
         position.x = newX;
         position.z = newZ;
 
-        Transform3D newTransform = new Transform3D();
-        newTransform.setTranslation(position);
-        modelRootTG.setTransform(newTransform);
+        positionTransform.setTranslation(position);
+        modelRootTG.setTransform(positionTransform);
 
         updateRotation(direction);
     }
@@ -175,6 +173,20 @@ public class GhostModel {
         return new Vector3d(position);
     }
 
+    // Copies the current position into out and returns it, for per frame callers
+    public Vector3d getPosition(Vector3d out) {
+        out.set(position);
+        return out;
+    }
+
+    public double getX() {
+        return position.x;
+    }
+
+    public double getZ() {
+        return position.z;
+    }
+
     // Returns character bounding box radius
     public static double getCharacterHalf() {
         return CHARACTER_HALF;
@@ -0,0 +1,57 @@
+package ShapeShifters;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Connection handshake shared by the client and the server
+    // A new client opens with HELLO and the capabilities it understands
+    // The server answers with WELCOME and the capabilities it will use for that client
+    // Clients that never send HELLO keep getting the original text protocol
+public class Handshake {
+    public static final String HELLO = "HELLO";
+    public static final String WELCOME = "WELCOME";
+    public static final int VERSION = 1;
+
+    // how long the server waits for HELLO before falling back to the text protocol
+    public static final int HELLO_TIMEOUT_MS = 1000;
+
+    // capabilities
+    public static final String CAP_NPC_BINARY = "NPC_BIN" + NpcSnapshotCodec.VERSION;
+    // the world is sent as "WORLD <seed> <height> <width>" and rebuilt by MazeManager on the client
+        // bump the number whenever GenerateMaze or MazeManager would build a different maze from the same seed
+    public static final String CAP_WORLD_SEED = "WORLD_SEED1";
+    public static final String WORLD = "WORLD";
+    // the maze is streamed in deflated chunks, see MazeStreamCodec
+    public static final String CAP_MAZE_STREAM = "MAZE_STREAM" + MazeStreamCodec.VERSION;
+    // the client sends input frames and the server moves its ghost, see PlayerMovement
+    public static final String CAP_INPUT = "INPUT" + PlayerMovement.VERSION;
+    // the server answers "PING <token>" with "PONG <token>" so the client can measure the round trip
+    public static final String CAP_PING = "PING1";
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+    // right after WELCOME the server sends "WALL_CLOCK <phase>", where its moving wall cycle is in milliseconds
+        // the client runs its walls from that phase instead of its own clock, which may be off from the server's
+    public static final String CAP_WALL_CLOCK = "WALL_CLOCK1";
+    public static final String WALL_CLOCK = "WALL_CLOCK";
+
+    // Builds a HELLO or WELCOME line
+    public static String line(String kind, Collection<String> caps) {
+        StringBuilder sb = new StringBuilder(kind).append(' ').append(VERSION);
+        for (String cap : caps) {
+            sb.append(' ').append(cap);
+        }
+        return sb.toString();
+    }
+
+    // Reads the capabilities out of a HELLO or WELCOME line
+    public static Set<String> parseCaps(String line) {
+        Set<String> caps = new LinkedHashSet<>();
+        String[] tokens = line.trim().split(" ");
+        // tokens[0] is the kind, tokens[1] the handshake version
+        for (int i = 2; i < tokens.length; i++) {
+            caps.add(tokens[i]);
+        }
+        return caps;
+    }
+}
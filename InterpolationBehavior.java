@@ -0,0 +1,51 @@
+package ShapeShifters;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jogamp.java3d.Behavior;
+import org.jogamp.java3d.WakeupCriterion;
+import org.jogamp.java3d.WakeupOnElapsedFrames;
+
+// Moves remote entities once per frame from their snapshot buffers
+    // Everything is drawn a fixed delay in the past so there are usually two snapshots to blend between
+public class InterpolationBehavior extends Behavior {
+    public static final long DEFAULT_DELAY_MILLIS = 100;
+
+    // Applies an interpolated state to the scene, called on the behavior thread
+    public interface Target {
+        void apply(SnapshotBuffer.Sample sample);
+    }
+
+    private final List<SnapshotBuffer> buffers = new ArrayList<>();
+    private final List<Target> targets = new ArrayList<>();
+    private final SnapshotBuffer.Sample sample = new SnapshotBuffer.Sample();
+    private final WakeupOnElapsedFrames everyFrame = new WakeupOnElapsedFrames(0);
+    private final long delayNanos;
+
+    public InterpolationBehavior(long delayMillis) {
+        this.delayNanos = delayMillis * 1_000_000L;
+    }
+
+    // Registers an entity, must happen before the behavior is live
+    public void add(SnapshotBuffer buffer, Target target) {
+        buffers.add(buffer);
+        targets.add(target);
+    }
+
+    @Override
+    public void initialize() {
+        wakeupOn(everyFrame);
+    }
+
+    @Override
+    public void processStimulus(Iterator<WakeupCriterion> criteria) {
+        long renderTime = System.nanoTime() - delayNanos;
+        for (int k = 0; k < buffers.size(); k++) {
+            if (buffers.get(k).sample(renderTime, sample)) {
+                targets.get(k).apply(sample);
+            }
+        }
+        wakeupOn(everyFrame);
+    }
+}
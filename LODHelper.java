@@ -40,7 +40,13 @@ public class LODHelper {
 
     // updates LOD position to match object
     public static void updateLODPosition(DistanceLOD lodBehavior, Vector3d position) {
-        lodBehavior.setPosition(new Point3f((float)position.x, (float)position.y, (float)position.z));
+        updateLODPosition(lodBehavior, position, new Point3f());
+    }
+
+    // Same as above with a caller owned point, for callers that update every frame
+    public static void updateLODPosition(DistanceLOD lodBehavior, Vector3d position, Point3f scratch) {
+        scratch.set((float)position.x, (float)position.y, (float)position.z);
+        lodBehavior.setPosition(scratch);
     }
 
     // creates simplified ghost model for low detail rendering
@@ -0,0 +1,71 @@
+package ShapeShifters;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed bucket histogram of durations
+    // Recording is lock free so the simulation thread never waits on a reader
+public class LatencyHistogram {
+    // bucket upper bounds in microseconds, the last bucket holds everything slower
+    private static final long[] BUCKET_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_MICROS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = nanos / 1_000;
+        int bucket = 0;
+        while (bucket < BUCKET_MICROS.length && micros > BUCKET_MICROS[bucket]) bucket++;
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0 to 100), in milliseconds
+        // Never more than the slowest recorded duration
+    public double percentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_MICROS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(BUCKET_MICROS[i] / 1000.0, getMaxMillis());
+        }
+        return getMaxMillis();
+    }
+
+    // Counts per bucket, see getBucketBoundsMicros for the upper bounds
+    public long[] getBucketCounts() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public static long[] getBucketBoundsMicros() {
+        return BUCKET_MICROS.clone();
+    }
+}
@@ -0,0 +1,513 @@
+package ShapeShifters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.jogamp.vecmath.Vector3d;
+
+// One 2 player match hosted by BasicServer
+    // Owns its own maze, npcs, treasure and clients so one server process can run many matches
+    // Ticked by the shared server loop, every method that touches match state holds the room lock
+public class MatchRoom {
+    public static final int PLAYERS_PER_ROOM = 2;
+    static final double NPC_WALL_HALF = 0.03; // half size of the npc box used against walls
+    private static final int NPC_COUNT = Integer.getInteger("shapeshifters.npcCount", 3); // at most one per open cell
+    // mazes of at least two stream chunks are streamed to clients that can take a seed as well, see sendInitialState
+    private static final int MAZE_STREAM_MIN_CELLS =
+            Integer.getInteger("shapeshifters.mazeStreamCells", 2 * MazeStreamCodec.CELLS_PER_CHUNK);
+    private static final double NPC_SPEED = 0.1; // world units per second, 0.005 per tick at 20 Hz
+    private static final long PLACEMENT_SALT = 0x9E3779B97F4A7C15L; // keeps placement apart from the maze's random stream
+    private static final long NPC_RANDOM_SALT = 0xC2B2AE3D27D4EB4FL; // seeds of the npcs' own random streams
+    private static final double FAN_X = 0.0; // the center fan blocks npcs in every room
+    private static final double FAN_Z = 0.0;
+    private static final double INPUTS_PER_SECOND = 1000.0 / 16; // clients send one input frame per 16 ms movement timer
+    private static final double INPUT_BURST = 30; // frames a player may catch up on after a network stall
+    static final double VIEW_RADIUS = 1.5; // clients get every tick of what is this close, a little past what they draw
+    private static final double FAR_UPDATES_PER_SECOND = 2; // everything further away is only sent this often
+
+    private final int roomId;
+    private final MazeManager mazeManager;
+    private String mazeLine; // one digit per cell for the oldest clients, built on first use
+    private List<String> mazeStreamLines; // chunked transfer, built on first use
+    private final MazeGrid mazeGrid;
+    private final int[][] movingWalls;
+    private final String treasureMsg;
+    private final NpcStore npcs; // simulated headless, clients build the models
+    private final NpcStore.CollisionChecker wallChecker;
+    private final NpcStore.CollisionChecker fanChecker;
+    private final Map<Integer, Vector3d> playerPositions = new ConcurrentHashMap<>();
+    private final BasicServer.ClientSession[] players = new BasicServer.ClientSession[PLAYERS_PER_ROOM];
+    private final List<BasicServer.ClientSession> clients = new ArrayList<>();
+    private boolean started = false; // set once both seats were filled, the lobby stops using the room
+
+    // authoritative movement of players that send input frames, indexed by seat, see PlayerMovement
+    private final PlayerMovement.State[] playerStates = new PlayerMovement.State[PLAYERS_PER_ROOM]; // null until spawned
+    private final PlayerMovement.Obstacles[] playerObstacles = new PlayerMovement.Obstacles[PLAYERS_PER_ROOM];
+    private final int[] lastInputSeq = new int[PLAYERS_PER_ROOM];
+    private final boolean[] playerSlowed = new boolean[PLAYERS_PER_ROOM];
+    private final boolean[] playerChanged = new boolean[PLAYERS_PER_ROOM]; // sent to the room on the next tick
+    private final double[] inputBudget = new double[PLAYERS_PER_ROOM]; // frames a player may still move this tick
+    private final double inputsPerTick;
+
+    // binary npc snapshots, see NpcSnapshotCodec
+    private int npcTick = 0;
+    private final int npcPositionShift;
+
+    // area of interest, each client only gets what is within VIEW_RADIUS of its player except on far ticks
+    private final SpatialGrid npcGrid;
+    private boolean[] npcInView = new boolean[0];
+    private final int farUpdateTicks;
+    private final Map<BasicServer.ClientSession, ClientView> views = new HashMap<>();
+    private final boolean[] positionPending = new boolean[PLAYERS_PER_ROOM]; // a player's position was held back from someone
+    private final boolean[] movedLastTick = new boolean[PLAYERS_PER_ROOM]; // a player that stops is sent once more
+
+    private final NpcContactSolver contactSolver; // npc against npc contacts
+
+    // parallel npc ticks, null when every room ticks on the simulation thread alone
+    private static final int PARALLEL_MIN_NPCS = 1024; // fewer npcs than this are quicker on one thread
+    private static final int PARALLEL_CHUNK = 256; // npcs moved per task
+    private final ForkJoinPool npcPool;
+    private final double[] playerX = new double[PLAYERS_PER_ROOM];
+    private final double[] playerZ = new double[PLAYERS_PER_ROOM];
+    private int tickPlayerCount = 0;
+
+    // What one client was sent, its npc snapshots only hold the npcs it was told about
+    private static class ClientView {
+        final NpcSnapshotCodec.History history = new NpcSnapshotCodec.History(64);
+        NpcSnapshotCodec.Snapshot sent; // newest snapshot sent, null before the first one
+    }
+
+    // Everything about the world follows from the seed, the same seed gives the same match
+        // With a pool, rooms with many npcs tick them on it, see NpcContactSolver.resolveParallel
+    public MatchRoom(int roomId, int mazeHeight, int mazeWidth, int tickRate, long seed, ForkJoinPool npcPool) {
+        this.roomId = roomId;
+        this.npcPool = npcPool;
+
+        // generate maze and moving wall data
+        mazeManager = new MazeManager(mazeHeight, mazeWidth, seed);
+        movingWalls = mazeManager.getMovingWalls();
+        mazeGrid = MazeGrid.fromCells(mazeManager.getCells(), mazeHeight, mazeWidth); // collision index built once
+        double mazeExtent = Math.max(Math.abs(MazeGrid.ORIGIN),
+                Math.abs(MazeGrid.ORIGIN + Math.max(mazeHeight, mazeWidth) * MazeGrid.CELL_SIZE));
+        npcPositionShift = NpcSnapshotCodec.shiftFor(mazeExtent);
+
+        // find valid positions from open cells
+        List<Vector3d> validPositions = new ArrayList<>();
+        for (int i = 0; i < mazeHeight; i++) {
+            for (int j = 0; j < mazeWidth; j++) {
+                if (!mazeManager.isWall(i, j)) {
+                    double x = -1 + i * 0.103;
+                    double z = -1 + j * 0.103;
+                    validPositions.add(new Vector3d(x, 0.1, z));
+                }
+            }
+        }
+
+        SplittableRandom placement = new SplittableRandom(seed ^ PLACEMENT_SALT);
+        // pick treasure position randomly
+        Vector3d treasurePos = validPositions.get(placement.nextInt(validPositions.size()));
+        treasureMsg = "TREASURE " + treasurePos.x + " " + treasurePos.y + " " + treasurePos.z;
+        validPositions.remove(treasurePos);
+
+        // create green NPCs from valid positions, the step keeps their speed the same at any tick rate
+        double npcStep = NPC_SPEED / tickRate;
+        SplittableRandom npcSeeds = new SplittableRandom(seed ^ NPC_RANDOM_SALT);
+        npcs = new NpcStore(Math.min(NPC_COUNT, validPositions.size()));
+        for (int i = 0; i < NPC_COUNT; i++) {
+            if (validPositions.isEmpty()) break;
+            Vector3d pos = validPositions.remove(placement.nextInt(validPositions.size()));
+            int direction = placement.nextInt(8);
+            npcs.add(pos.x, pos.z, NpcStore.directionX(direction), NpcStore.directionZ(direction), npcStep, npcSeeds.nextLong());
+        }
+
+        // check collision with maze walls through the occupancy grid
+        wallChecker = (x, z) -> mazeGrid.collides(x, z, NPC_WALL_HALF);
+        fanChecker = (x, z) -> CollisionDetector.isColliding(x, z, NpcStore.NPC_HALF, FAN_X, FAN_Z, PlayerMovement.PLAYER_HALF);
+
+        inputsPerTick = INPUTS_PER_SECOND / tickRate;
+        npcGrid = SpatialGrid.forMaze(mazeHeight, mazeWidth, VIEW_RADIUS);
+        farUpdateTicks = Math.max(1, (int) Math.round(tickRate / FAR_UPDATES_PER_SECOND));
+        contactSolver = new NpcContactSolver(SpatialGrid.forMaze(mazeHeight, mazeWidth, MazeGrid.CELL_SIZE), NpcStore.NPC_HALF);
+        for (int seat = 0; seat < PLAYERS_PER_ROOM; seat++) {
+            int self = seat;
+            playerObstacles[seat] = (x, z) -> blocksPlayer(self, x, z);
+        }
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    // True while the lobby can still seat a player here
+    public synchronized boolean isOpen() {
+        return !started && clients.size() < PLAYERS_PER_ROOM;
+    }
+
+    public synchronized boolean isEmpty() {
+        return clients.isEmpty();
+    }
+
+    // Copy of the seated clients, safe to walk from other threads
+    public synchronized List<BasicServer.ClientSession> getClients() {
+        return new ArrayList<>(clients);
+    }
+
+    // Seats the client, sends it the initial state and adds it to the broadcast list
+        // Returns false if the room has no free seat
+    public synchronized boolean join(BasicServer.ClientSession client) {
+        if (!isOpen()) return false;
+        int seat = 0;
+        while (players[seat] != null) seat++;
+        players[seat] = client;
+        client.joined(this, seat + 1); // player ids are 1 and 2 inside every room
+        sendInitialState(client);
+        clients.add(client);
+        if (clients.size() == PLAYERS_PER_ROOM) started = true;
+        return true;
+    }
+
+    // Frees the client's seat, returns true if the room is now empty
+    public synchronized boolean leave(BasicServer.ClientSession client) {
+        clients.remove(client);
+        views.remove(client);
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == client) players[i] = null;
+        }
+        playerPositions.remove(client.playerId); // remove player on disconnect
+        int seat = client.playerId - 1;
+        if (seat >= 0 && seat < PLAYERS_PER_ROOM && players[seat] == null) {
+            playerStates[seat] = null;
+            lastInputSeq[seat] = 0;
+            playerSlowed[seat] = false;
+            playerChanged[seat] = false;
+            positionPending[seat] = false;
+            movedLastTick[seat] = false;
+        }
+        return clients.isEmpty();
+    }
+
+    // send the initial game state
+        // it goes out as one burst that the limits for slow clients do not count, a streamed maze alone can be megabytes
+    private void sendInitialState(BasicServer.ClientSession client) {
+        List<String> state = new ArrayList<>();
+        state.add("ID " + client.playerId); // send player id
+
+        // a seed is the smallest transfer, but the client has to generate the whole maze before building any wall
+            // large mazes are streamed instead so the client builds each band of walls as its chunk arrives
+        boolean largeMaze = mazeManager.getHeight() * mazeManager.getWidth() >= MAZE_STREAM_MIN_CELLS;
+        if (client.usesMazeStream() && (largeMaze || !client.usesWorldSeed())) {
+            state.addAll(mazeStreamLines()); // send maze in chunks
+        }
+        else if (client.usesWorldSeed()) {
+            // the client rebuilds maze and moving walls from the seed
+            state.add(Handshake.WORLD + " " + mazeManager.getSeed()
+                    + " " + mazeManager.getHeight() + " " + mazeManager.getWidth());
+        }
+        else {
+            state.add(legacyMazeLine()); // send maze
+            for (int[] coords : movingWalls) {
+                state.add(coords[0] + " " + coords[1]); // send moving wall
+            }
+        }
+
+        state.add("NPC_COUNT " + npcs.size());
+        for (int i = 0; i < npcs.size(); i++) {
+            state.add("NPC_INIT " + npcs.getX(i) + " " + npcs.getZ(i) + " 0 0");
+        }
+
+        state.add(treasureMsg); // send treasure info
+        client.sendInitialState(state);
+    }
+
+    private String legacyMazeLine() {
+        if (mazeLine == null) {
+            byte[] cells = mazeManager.getCells();
+            StringBuilder mazeStr = new StringBuilder(cells.length);
+            for (byte cell : cells) {
+                mazeStr.append(cell);
+            }
+            mazeLine = mazeStr.toString();
+        }
+        return mazeLine;
+    }
+
+    private List<String> mazeStreamLines() {
+        if (mazeStreamLines == null) {
+            mazeStreamLines = MazeStreamCodec.encode(mazeManager.getCells(),
+                    mazeManager.getHeight(), mazeManager.getWidth(), movingWalls);
+        }
+        return mazeStreamLines;
+    }
+
+    // Handles a position line for player id sent by sender, returns true if the line should be forwarded as is
+        // Positions of players that send input frames are only taken when they spawn or are sent back by the other player
+    public synchronized boolean updatePlayerPosition(BasicServer.ClientSession sender, int id, double x, double y, double z, int direction) {
+        if (id < 1 || id > PLAYERS_PER_ROOM) return false;
+        int seat = id - 1;
+        BasicServer.ClientSession target = players[seat];
+        if (target == null || !target.usesInputFrames()) {
+            setPlayerPosition(id, x, y, z); // older client, its positions are trusted
+            return true;
+        }
+        if (target == sender && playerStates[seat] != null) return false; // the server moves this player
+        if (mazeGrid.collides(x, z, PlayerMovement.PLAYER_HALF)) return false;
+
+        PlayerMovement.State state = playerStates[seat] != null ? playerStates[seat] : new PlayerMovement.State();
+        state.x = x;
+        state.z = z;
+        state.direction = direction;
+        playerStates[seat] = state;
+        setPlayerPosition(id, x, 0.1, z);
+        playerChanged[seat] = true;
+        return false;
+    }
+
+    // Moves the stored position of a player in place, only the room lock guards it
+    private void setPlayerPosition(int id, double x, double y, double z) {
+        playerPositions.computeIfAbsent(id, key -> new Vector3d()).set(x, y, z);
+    }
+
+    // Moves a player by one input frame, frames older than the last one applied are ignored
+    public synchronized void applyInput(BasicServer.ClientSession client, int seq, int buttons) {
+        int seat = client.playerId - 1;
+        if (seat < 0 || seat >= PLAYERS_PER_ROOM || players[seat] != client) return;
+        if (seq <= lastInputSeq[seat]) return;
+        lastInputSeq[seat] = seq;
+        playerChanged[seat] = true; // acknowledged even when dropped, the client then corrects itself
+
+        PlayerMovement.State state = playerStates[seat];
+        if (state == null || inputBudget[seat] < 1) return; // not spawned yet, or sending faster than the movement timer
+        inputBudget[seat]--;
+        double step = playerSlowed[seat] ? PlayerMovement.SLOW_STEP : PlayerMovement.NORMAL_STEP;
+        boolean movingWallsOpen = MovingWallClock.isOpen(System.currentTimeMillis());
+        if (PlayerMovement.step(state, buttons, step, mazeGrid, movingWallsOpen, playerObstacles[seat]) == PlayerMovement.MOVED) {
+            setPlayerPosition(client.playerId, state.x, 0.1, state.z);
+        }
+    }
+
+    // The blue ghost moves slowly while it is turned green
+    public synchronized void setSlowed(BasicServer.ClientSession client, boolean slowed) {
+        int seat = client.playerId - 1;
+        if (seat >= 0 && seat < PLAYERS_PER_ROOM) playerSlowed[seat] = slowed;
+    }
+
+    // True if a player of the given seat at (x, z) would overlap an npc or the other player
+    private boolean blocksPlayer(int seat, double x, double z) {
+        for (int i = 0; i < npcs.size(); i++) {
+            if (CollisionDetector.isColliding(x, z, PlayerMovement.PLAYER_HALF, npcs.getX(i), npcs.getZ(i), NpcStore.NPC_HALF)) {
+                return true;
+            }
+        }
+        for (int id = 1; id <= PLAYERS_PER_ROOM; id++) {
+            Vector3d other = id == seat + 1 ? null : playerPositions.get(id);
+            if (other != null && CollisionDetector.isColliding(x, z, PlayerMovement.PLAYER_HALF, other.x, other.z, PlayerMovement.PLAYER_HALF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sends players that moved since the last tick, the owner gets its acknowledged state and everyone else a position line
+        // Other players only get the position while it is within their view, or on a far tick, until then it stays pending
+        // The tick after a player stops its position goes out once more unchanged, so interpolating clients see it stand still
+    private void broadcastPlayerStates(boolean farTick) {
+        for (int seat = 0; seat < PLAYERS_PER_ROOM; seat++) {
+            inputBudget[seat] = Math.min(INPUT_BURST, inputBudget[seat] + inputsPerTick);
+            boolean changed = playerChanged[seat];
+            boolean stopped = !changed && movedLastTick[seat];
+            movedLastTick[seat] = changed;
+            if (!changed && !stopped && !positionPending[seat]) continue;
+            playerChanged[seat] = false;
+            positionPending[seat] = false;
+            PlayerMovement.State state = playerStates[seat];
+            BasicServer.ClientSession owner = players[seat];
+            if (state == null || owner == null) continue;
+
+            String position = (seat + 1) + " " + state.x + " " + 0.1 + " " + state.z + " " + state.direction;
+            for (BasicServer.ClientSession client : clients) {
+                if (client == owner) continue;
+                if (farTick || inView(client, state.x, state.z)) {
+                    client.sendMessage(position);
+                }
+                else {
+                    positionPending[seat] = true;
+                }
+            }
+            if (changed) {
+                owner.sendMessage(PlayerMovement.STATE + " " + lastInputSeq[seat] + " " + state.x + " " + state.z + " " + state.direction);
+            }
+        }
+    }
+
+    // True if (x, z) is within VIEW_RADIUS of the client's player, or the server does not know where that player is
+    private boolean inView(BasicServer.ClientSession client, double x, double z) {
+        Vector3d viewer = playerPositions.get(client.playerId);
+        if (viewer == null) return true;
+        double dx = x - viewer.x;
+        double dz = z - viewer.z;
+        return dx * dx + dz * dz <= VIEW_RADIUS * VIEW_RADIUS;
+    }
+
+    // One simulation step, moves the npcs and sends their state to the room's clients
+    public synchronized void tick() {
+        // players as they were at the start of the tick, every npc bounces off the same positions
+        int playerCount = 0;
+        for (Vector3d playerPos : playerPositions.values()) {
+            if (playerCount == PLAYERS_PER_ROOM) break;
+            playerX[playerCount] = playerPos.x;
+            playerZ[playerCount] = playerPos.z;
+            playerCount++;
+        }
+        tickPlayerCount = playerCount;
+
+        // each phase is timed for ServerMetrics
+        long start = System.nanoTime();
+        forEachNpcRange(this::moveNpcs);
+        long moved = System.nanoTime();
+        ServerMetrics.recordPhase(ServerMetrics.PHASE_NPC_WALLS, moved - start);
+
+        forEachNpcRange(this::bounceNpcs);
+        long bounced = System.nanoTime();
+        ServerMetrics.recordPhase(ServerMetrics.PHASE_NPC_PLAYERS, bounced - moved);
+
+        resolveNpcContacts(); // check collision between npcs
+        long resolved = System.nanoTime();
+        ServerMetrics.recordPhase(ServerMetrics.PHASE_NPC_CONTACTS, resolved - bounced);
+
+        boolean farTick = npcTick % farUpdateTicks == 0;
+        broadcastNPCPositions(farTick); // send npc data to clients
+        broadcastPlayerStates(farTick);
+        ServerMetrics.recordPhase(ServerMetrics.PHASE_BROADCAST, System.nanoTime() - resolved);
+    }
+
+    // Work on the npcs from up to but not including to
+    private interface NpcRange {
+        void run(int from, int to);
+    }
+
+    // Runs pass over every npc, in chunks on the pool for large rooms
+        // Passes must only touch the state of the npcs in their range
+    private void forEachNpcRange(NpcRange pass) {
+        int count = npcs.size();
+        if (npcPool != null && count >= PARALLEL_MIN_NPCS) {
+            int chunks = (count + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+            npcPool.submit(() -> IntStream.range(0, chunks).parallel()
+                    .forEach(c -> pass.run(c * PARALLEL_CHUNK, Math.min(count, (c + 1) * PARALLEL_CHUNK))))
+                    .join();
+        }
+        else {
+            pass.run(0, count);
+        }
+    }
+
+    // Moves npcs a step, turning them at maze walls and the center fan
+    private void moveNpcs(int from, int to) {
+        for (int i = from; i < to; i++) {
+            npcs.update(i, wallChecker, fanChecker);
+        }
+    }
+
+    // Bounces npcs off the players
+    private void bounceNpcs(int from, int to) {
+        for (int i = from; i < to; i++) {
+            for (int p = 0; p < tickPlayerCount; p++) {
+                npcs.bounceOff(i, playerX[p], playerZ[p], PlayerMovement.PLAYER_HALF);
+            }
+        }
+    }
+
+    // Pushes apart npcs that overlap, directly in the store's arrays
+    private void resolveNpcContacts() {
+        if (npcPool != null && npcs.size() >= PARALLEL_MIN_NPCS) {
+            contactSolver.resolveParallel(npcPool, npcs.x, npcs.z, npcs.dirX, npcs.dirZ, npcs.step, npcs.size());
+        }
+        else {
+            contactSolver.resolve(npcs.x, npcs.z, npcs.dirX, npcs.dirZ, npcs.step, npcs.size(), null);
+        }
+    }
+
+    // send npc positions to the room's clients
+        // each client gets the npcs near its player, and every npc on far ticks
+        // clients that negotiated binary snapshots get a delta against the last tick they acknowledged
+    private void broadcastNPCPositions(boolean farTick) {
+        NpcSnapshotCodec.Snapshot snapshot = new NpcSnapshotCodec.Snapshot(npcTick++, npcPositionShift, npcs.size());
+        npcGrid.clear(npcs.size());
+        for (int i = 0; i < npcs.size(); i++) {
+            snapshot.set(i, npcs.getX(i), npcs.getZ(i), npcs.getDirX(i), npcs.getDirZ(i));
+            npcGrid.insert(i, npcs.getX(i), npcs.getZ(i));
+        }
+        if (npcInView.length != npcs.size()) {
+            npcInView = new boolean[npcs.size()];
+        }
+
+        String textState = null; // shared by text clients that see every npc
+        for (BasicServer.ClientSession client : clients) {
+            boolean seesAll = markNpcsInView(client, farTick);
+            if (client.usesBinaryNpcUpdates()) {
+                ClientView view = views.computeIfAbsent(client, c -> new ClientView());
+                NpcSnapshotCodec.Snapshot sent = seesAll ? snapshot : mergeInView(view.sent, snapshot);
+                NpcSnapshotCodec.Snapshot baseline = view.history.get(client.getAckedNpcTick());
+                view.history.add(sent);
+                view.sent = sent;
+                byte[] encoded = NpcSnapshotCodec.encode(sent, baseline);
+                if (encoded != null) client.sendMessage(NpcSnapshotCodec.toLine(encoded)); // null if nothing changed since the baseline
+                continue;
+            }
+            if (seesAll) {
+                if (textState == null) {
+                    textState = buildTextNPCState(null);
+                }
+                client.sendMessage(textState);
+            }
+            else {
+                String line = buildTextNPCState(npcInView);
+                if (line.length() > NpcSnapshotCodec.TEXT_PREFIX.length()) client.sendMessage(line);
+            }
+        }
+    }
+
+    // Fills npcInView for the client, returns true if it should get every npc this tick
+    private boolean markNpcsInView(BasicServer.ClientSession client, boolean farTick) {
+        Vector3d viewer = playerPositions.get(client.playerId);
+        if (farTick || viewer == null) return true;
+        Arrays.fill(npcInView, false);
+        npcGrid.markWithin(viewer.x, viewer.z, VIEW_RADIUS, npcInView);
+        return false;
+    }
+
+    // The client's previous snapshot with the npcs in view brought up to date, all of them if it had none
+    private NpcSnapshotCodec.Snapshot mergeInView(NpcSnapshotCodec.Snapshot previous, NpcSnapshotCodec.Snapshot current) {
+        if (previous == null || previous.size() != current.size()) return current;
+        NpcSnapshotCodec.Snapshot merged = new NpcSnapshotCodec.Snapshot(current.tick, current.shift, current.size());
+        for (int i = 0; i < current.size(); i++) {
+            NpcSnapshotCodec.Snapshot from = npcInView[i] ? current : previous;
+            merged.x[i] = from.x[i];
+            merged.z[i] = from.z[i];
+            merged.dir[i] = from.dir[i];
+        }
+        return merged;
+    }
+
+    // text NPC_UPDATE line for clients without binary snapshots, only npcs set in the mask unless it is null
+    private String buildTextNPCState(boolean[] mask) {
+        StringBuilder npcState = new StringBuilder(NpcSnapshotCodec.TEXT_PREFIX);
+        for (int i = 0; i < npcs.size(); i++) {
+            if (mask != null && !mask[i]) continue;
+            NpcSnapshotCodec.appendText(npcState, i, npcs.getX(i), npcs.getZ(i), npcs.getDirX(i), npcs.getDirZ(i));
+        }
+        return npcState.toString();
+    }
+
+    // broadcast a message to all clients in the room
+    public synchronized void broadcast(String message, BasicServer.ClientSession sender) {
+        for (BasicServer.ClientSession client : clients) {
+            client.sendMessage(message);
+        }
+    }
+}
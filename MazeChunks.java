@@ -0,0 +1,106 @@
+package ShapeShifters;
+
+import org.jogamp.java3d.BoundingBox;
+import org.jogamp.java3d.BranchGroup;
+import org.jogamp.java3d.Node;
+import org.jogamp.java3d.Switch;
+import org.jogamp.vecmath.Point3d;
+
+// Splits the maze scene graph into square chunks of cells
+    // Each chunk is a Switch with fixed bounds, so the renderer skips whole chunks without looking inside
+    // Only chunks near the camera are switched on, everything else is left out of rendering and behavior scheduling
+public class MazeChunks {
+    public static final int CHUNK_CELLS = WallMeshBuilder.REGION_SIZE; // one merged wall mesh per chunk
+
+    private static final double FLOOR_Y = 0.0;
+    private static final double CEILING_Y = 0.2; // top of the walls
+
+    private final int chunkRows;
+    private final int chunkCols;
+    private final Switch[] chunks; // row-major, null until something is added
+    private final BranchGroup root = new BranchGroup();
+    private int chunkCount = 0;
+
+    // Chunk range currently switched on, empty until the first update
+    private int shownMinI = 0, shownMaxI = -1, shownMinJ = 0, shownMaxJ = -1;
+
+    public MazeChunks(int rows, int cols) {
+        chunkRows = (rows + CHUNK_CELLS - 1) / CHUNK_CELLS;
+        chunkCols = (cols + CHUNK_CELLS - 1) / CHUNK_CELLS;
+        chunks = new Switch[chunkRows * chunkCols];
+    }
+
+    // Group holding every chunk, added to the scene once
+    public BranchGroup getRoot() {
+        return root;
+    }
+
+    public boolean isEmpty() {
+        return chunkCount == 0;
+    }
+
+    // Adds a node to the chunk holding maze cell (i, j), must happen before the scene is live
+    public void add(int i, int j, Node node) {
+        int ci = i / CHUNK_CELLS;
+        int cj = j / CHUNK_CELLS;
+        Switch chunk = chunks[ci * chunkCols + cj];
+        if (chunk == null) {
+            chunk = new Switch(Switch.CHILD_NONE);
+            chunk.setCapability(Switch.ALLOW_SWITCH_WRITE);
+            chunk.setBoundsAutoCompute(false);
+            chunk.setBounds(chunkBounds(ci, cj));
+            chunk.addChild(new BranchGroup());
+            chunks[ci * chunkCols + cj] = chunk;
+            root.addChild(chunk);
+            chunkCount++;
+        }
+        ((BranchGroup) chunk.getChild(0)).addChild(node);
+    }
+
+    // Box around the cells of one chunk, walls included
+    private static BoundingBox chunkBounds(int ci, int cj) {
+        double minX = MazeGrid.ORIGIN + ci * CHUNK_CELLS * MazeGrid.CELL_SIZE - MazeGrid.WALL_HALF;
+        double minZ = MazeGrid.ORIGIN + cj * CHUNK_CELLS * MazeGrid.CELL_SIZE - MazeGrid.WALL_HALF;
+        double size = (CHUNK_CELLS - 1) * MazeGrid.CELL_SIZE + 2 * MazeGrid.WALL_HALF;
+        return new BoundingBox(new Point3d(minX, FLOOR_Y, minZ), new Point3d(minX + size, CEILING_Y, minZ + size));
+    }
+
+    // Switches on the chunks within radius of (x, z) and off the ones that left that range
+        // Only the chunks entering or leaving are touched, so this is cheap enough to call every frame
+    public synchronized void showAround(double x, double z, double radius) {
+        int minI = clamp(chunkOf(x - radius), chunkRows);
+        int maxI = clamp(chunkOf(x + radius), chunkRows);
+        int minJ = clamp(chunkOf(z - radius), chunkCols);
+        int maxJ = clamp(chunkOf(z + radius), chunkCols);
+        if (minI == shownMinI && maxI == shownMaxI && minJ == shownMinJ && maxJ == shownMaxJ) return;
+
+        for (int ci = shownMinI; ci <= shownMaxI; ci++) {
+            for (int cj = shownMinJ; cj <= shownMaxJ; cj++) {
+                if (ci < minI || ci > maxI || cj < minJ || cj > maxJ) setShown(ci, cj, false);
+            }
+        }
+        for (int ci = minI; ci <= maxI; ci++) {
+            for (int cj = minJ; cj <= maxJ; cj++) {
+                if (ci < shownMinI || ci > shownMaxI || cj < shownMinJ || cj > shownMaxJ) setShown(ci, cj, true);
+            }
+        }
+        shownMinI = minI;
+        shownMaxI = maxI;
+        shownMinJ = minJ;
+        shownMaxJ = maxJ;
+    }
+
+    private void setShown(int ci, int cj, boolean shown) {
+        Switch chunk = chunks[ci * chunkCols + cj];
+        if (chunk != null) chunk.setWhichChild(shown ? Switch.CHILD_ALL : Switch.CHILD_NONE);
+    }
+
+    // Chunk index along one axis for a world coordinate, may be outside the maze
+    private static int chunkOf(double world) {
+        return (int) Math.floor((world - MazeGrid.ORIGIN + MazeGrid.CELL_SIZE / 2) / (CHUNK_CELLS * MazeGrid.CELL_SIZE));
+    }
+
+    private static int clamp(int chunk, int count) {
+        return Math.max(0, Math.min(count - 1, chunk));
+    }
+}
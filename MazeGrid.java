@@ -0,0 +1,130 @@
+package ShapeShifters;
+
+import java.util.List;
+
+// Packed wall occupancy grid for the maze
+    // Built once from the maze so collision checks only look at the few cells a box can touch
+public class MazeGrid {
+    // World layout of maze cells, cell (i, j) is centred at (ORIGIN + i * CELL_SIZE, ORIGIN + j * CELL_SIZE)
+    public static final double ORIGIN = -1.0;
+    public static final double CELL_SIZE = 0.103;
+    public static final double WALL_HALF = 0.055;
+
+    private final int rows;
+    private final int cols;
+    private final long[] walls; // one bit per cell, row-major
+    private final long[] moving; // walls that slide open and closed
+
+    // Creates an empty grid with the given dimensions
+    public MazeGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.walls = new long[(rows * cols + 63) >>> 6];
+        this.moving = new long[walls.length];
+    }
+
+    // Builds a grid from the maze layout produced by MazeManager (1 = wall)
+    public static MazeGrid fromMaze(List<? extends List<Integer>> maze) {
+        int rows = maze.size();
+        int cols = rows == 0 ? 0 : maze.get(0).size();
+        MazeGrid grid = new MazeGrid(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> row = maze.get(i);
+            for (int j = 0; j < cols; j++) {
+                if (row.get(j) == 1) {
+                    grid.setWall(i, j, true);
+                }
+            }
+        }
+        return grid;
+    }
+
+    // Builds a grid from row-major cells as produced by GenerateMaze (1 = wall)
+    public static MazeGrid fromCells(byte[] cells, int rows, int cols) {
+        MazeGrid grid = new MazeGrid(rows, cols);
+        for (int bit = 0; bit < rows * cols; bit++) {
+            if (cells[bit] == GenerateMaze.WALL) {
+                grid.walls[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return grid;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    // Marks or clears a wall at the given cell
+    public void setWall(int i, int j, boolean wall) {
+        int bit = i * cols + j;
+        if (wall) {
+            walls[bit >>> 6] |= 1L << bit;
+        }
+        else {
+            walls[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    // Returns true if the cell is a wall, cells outside the grid are open
+    public boolean isWall(int i, int j) {
+        if (i < 0 || i >= rows || j < 0 || j >= cols) return false;
+        int bit = i * cols + j;
+        return (walls[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Flags a wall cell as a moving wall
+    public void setMoving(int i, int j, boolean isMoving) {
+        int bit = i * cols + j;
+        if (isMoving) {
+            moving[bit >>> 6] |= 1L << bit;
+        }
+        else {
+            moving[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    // Returns true if the cell is flagged as a moving wall
+    public boolean isMoving(int i, int j) {
+        if (i < 0 || i >= rows || j < 0 || j >= cols) return false;
+        int bit = i * cols + j;
+        return (moving[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Converts a world coordinate to the nearest cell index (not clamped)
+    public static int toCell(double world) {
+        return (int) Math.round((world - ORIGIN) / CELL_SIZE);
+    }
+
+    // Checks if a square box centred at (x, z) overlaps any wall cell
+        // Only the cells the box can reach are tested, so the cost does not depend on the maze size
+    public boolean collides(double x, double z, double half) {
+        return collides(x, z, half, false);
+    }
+
+    // Same as collides, but moving walls are skipped when they are currently open
+    public boolean collides(double x, double z, double half, boolean movingWallsOpen) {
+        int iMin = Math.max(0, (int) Math.floor((x - half - WALL_HALF - ORIGIN) / CELL_SIZE));
+        int iMax = Math.min(rows - 1, (int) Math.ceil((x + half + WALL_HALF - ORIGIN) / CELL_SIZE));
+        int jMin = Math.max(0, (int) Math.floor((z - half - WALL_HALF - ORIGIN) / CELL_SIZE));
+        int jMax = Math.min(cols - 1, (int) Math.ceil((z + half + WALL_HALF - ORIGIN) / CELL_SIZE));
+
+        for (int i = iMin; i <= iMax; i++) {
+            double wx = ORIGIN + i * CELL_SIZE;
+            // strict overlap on x, same as Rectangle2D.intersects
+            if (wx - WALL_HALF >= x + half || wx + WALL_HALF <= x - half) continue;
+            for (int j = jMin; j <= jMax; j++) {
+                int bit = i * cols + j;
+                long solid = walls[bit >>> 6];
+                if (movingWallsOpen) solid &= ~moving[bit >>> 6];
+                if ((solid & (1L << bit)) == 0) continue;
+                double wz = ORIGIN + j * CELL_SIZE;
+                if (wz - WALL_HALF < z + half && wz + WALL_HALF > z - half) return true;
+            }
+        }
+        return false;
+    }
+}
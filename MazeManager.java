@@ -1,36 +1,57 @@
 package ShapeShifters;
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 // Handles maze creation and customization
+    // The whole layout follows from the seed, so a client given the same seed and size rebuilds the same maze
 public class MazeManager {
+    private final long seed;
     private final int mazeHeight;
     private final int mazeWidth;
-    private ArrayList<ArrayList<Integer>> maze;
+    private final byte[] cells; // row-major, 1 = wall
     private int[][] movingWalls;
+    private final SplittableRandom random;
+
+    // Builds a maze from a fresh random seed
+    public MazeManager(int height, int width) {
+        this(height, width, new SplittableRandom().nextLong());
+    }
 
     // Initializes the maze
     // Modifies the maze
     // Sets moving walls within the maze
-    public MazeManager(int height, int width) {
-        // Use the same dimensions as before
+    public MazeManager(int height, int width, long seed) {
+        this.seed = seed;
         this.mazeHeight = height;
         this.mazeWidth = width;
+        this.random = new SplittableRandom(seed);
         // Get the maze grid from GenerateMaze
-        maze = GenerateMaze.getMaze(height, width);
+        cells = new GenerateMaze(random.split()).generate(height, width);
         clearCenter();
         removeRandomWalls();
         designateMovingWalls();
     }
 
+    // First row or column of the 3x3 center region, 9 for the 20x20 maze
+    public static int centerStart(int size) {
+        return size / 2 - 1;
+    }
+
+    // True for cells of the 3x3 center region kept clear for the fan
+    public static boolean isCenter(int i, int j, int height, int width) {
+        return i >= centerStart(height) && i < centerStart(height) + 3
+                && j >= centerStart(width) && j < centerStart(width) + 3;
+    }
+
     // Clears a 3x3 region in the center of the maze
         // So the fan in the middle has a guaranteed open space at all times
     private void clearCenter() {
-        // Clear a central area of the maze (positions 9 to 11)
-        for (int i = 9; i < 12; i++) {
-            for (int j = 9; j < 12; j++) {
-                maze.get(i).set(j, 0);
+        int ci = centerStart(mazeHeight);
+        int cj = centerStart(mazeWidth);
+        for (int i = ci; i < ci + 3; i++) {
+            for (int j = cj; j < cj + 3; j++) {
+                cells[i * mazeWidth + j] = GenerateMaze.PASSAGE;
             }
         }
     }
@@ -41,8 +62,8 @@ public class MazeManager {
         // Remove walls randomly (20% chance)
         for (int i = 1; i < mazeHeight - 1; i++) {
             for (int j = 1; j < mazeWidth - 1; j++) {
-                if (Math.random() < 0.2) {
-                    maze.get(i).set(j, 0);
+                if (random.nextDouble() < 0.2) {
+                    cells[i * mazeWidth + j] = GenerateMaze.PASSAGE;
                 }
             }
         }
@@ -51,12 +72,11 @@ public class MazeManager {
     // Randomly selects 4 wall positions which can later be animated or modified during gameplay
     private void designateMovingWalls() {
         movingWalls = new int[4][2];
-        Random rand = new Random();
         int movingWallsIndex = 0;
         while (movingWallsIndex < 4) {
-            int i = rand.nextInt(mazeHeight - 2) + 1;
-            int j = rand.nextInt(mazeWidth - 2) + 1;
-            if (maze.get(i).get(j) == 1 && !alreadyChosen(i, j, movingWallsIndex)) {
+            int i = random.nextInt(mazeHeight - 2) + 1;
+            int j = random.nextInt(mazeWidth - 2) + 1;
+            if (isWall(i, j) && !alreadyChosen(i, j, movingWallsIndex)) {
                 movingWalls[movingWallsIndex][0] = i;
                 movingWalls[movingWallsIndex][1] = j;
                 movingWallsIndex++;
@@ -74,13 +94,34 @@ public class MazeManager {
         return false;
     }
 
-    // Returns the generated and modified maze grid
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getHeight() {
+        return mazeHeight;
+    }
+
+    public int getWidth() {
+        return mazeWidth;
+    }
+
+    public boolean isWall(int i, int j) {
+        return cells[i * mazeWidth + j] == GenerateMaze.WALL;
+    }
+
+    // Returns the generated and modified maze as row-major cells
+    public byte[] getCells() {
+        return cells;
+    }
+
+    // Returns the generated and modified maze grid as nested lists
     public ArrayList<ArrayList<Integer>> getMaze() {
-        return maze;
+        return GenerateMaze.toList(cells, mazeHeight, mazeWidth);
     }
 
     // Returns the list of moving wall coordinates
     public int[][] getMovingWalls() {
         return movingWalls;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+package ShapeShifters;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Chunked maze transfer used instead of the single line of digits
+    // "MAZE_BEGIN <height> <width> <chunkRows> <chunkCount> <movingCount> <i> <j> ..." carries the size and moving walls
+    // each "MAZE_CHUNK <index> <firstRow> <rowCount> <base64>" holds a band of rows, one bit per cell, deflated
+    // "MAZE_END" closes the transfer, a client can build each band of walls as soon as its chunk arrives
+public class MazeStreamCodec {
+    public static final int VERSION = 1;
+    public static final String BEGIN = "MAZE_BEGIN";
+    public static final String CHUNK = "MAZE_CHUNK";
+    public static final String END = "MAZE_END";
+
+    static final int CELLS_PER_CHUNK = 1 << 14; // about 2 KB of bits before compression
+
+    // Receives each band of decoded rows, cells are row-major with 1 = wall
+    public interface RowListener {
+        void onRows(int firstRow, int rowCount, byte[] cells);
+    }
+
+    // Rows per chunk for a maze of the given width
+    public static int chunkRows(int width) {
+        return Math.max(1, CELLS_PER_CHUNK / Math.max(1, width));
+    }
+
+    // Builds every line of the transfer for a maze in row-major cells
+    public static List<String> encode(byte[] cells, int height, int width, int[][] movingWalls) {
+        int chunkRows = chunkRows(width);
+        int chunkCount = (height + chunkRows - 1) / chunkRows;
+        List<String> lines = new ArrayList<>(chunkCount + 2);
+
+        StringBuilder begin = new StringBuilder(BEGIN)
+                .append(' ').append(height).append(' ').append(width)
+                .append(' ').append(chunkRows).append(' ').append(chunkCount)
+                .append(' ').append(movingWalls.length);
+        for (int[] coords : movingWalls) {
+            begin.append(' ').append(coords[0]).append(' ').append(coords[1]);
+        }
+        lines.add(begin.toString());
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            for (int index = 0; index < chunkCount; index++) {
+                int firstRow = index * chunkRows;
+                int rowCount = Math.min(chunkRows, height - firstRow);
+                byte[] packed = pack(cells, firstRow * width, rowCount * width);
+                lines.add(CHUNK + " " + index + " " + firstRow + " " + rowCount + " "
+                        + Base64.getEncoder().encodeToString(deflate(deflater, packed)));
+            }
+        } finally {
+            deflater.end();
+        }
+        lines.add(END);
+        return lines;
+    }
+
+    // One bit per cell, lowest bit first
+    private static byte[] pack(byte[] cells, int start, int count) {
+        byte[] packed = new byte[(count + 7) >>> 3];
+        for (int k = 0; k < count; k++) {
+            if (cells[start + k] == GenerateMaze.WALL) {
+                packed[k >>> 3] |= (byte) (1 << (k & 7));
+            }
+        }
+        return packed;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // Client side state of one transfer, created from the MAZE_BEGIN line
+    public static class Decoder {
+        private final int height;
+        private final int width;
+        private final int[][] movingWalls;
+        private final Inflater inflater = new Inflater();
+        private int rowsReceived = 0;
+
+        public Decoder(String beginLine) {
+            String[] tokens = beginLine.trim().split(" ");
+            height = Integer.parseInt(tokens[1]);
+            width = Integer.parseInt(tokens[2]);
+            // tokens 3 and 4 are the chunk size and count, chunks say which rows they hold
+            int movingCount = Integer.parseInt(tokens[5]);
+            movingWalls = new int[movingCount][2];
+            for (int n = 0; n < movingCount; n++) {
+                movingWalls[n][0] = Integer.parseInt(tokens[6 + 2 * n]);
+                movingWalls[n][1] = Integer.parseInt(tokens[7 + 2 * n]);
+            }
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int[][] getMovingWalls() {
+            return movingWalls;
+        }
+
+        // True once every row has arrived
+        public boolean isComplete() {
+            return rowsReceived >= height;
+        }
+
+        // Decodes one MAZE_CHUNK line and hands its rows to the listener
+        public void decodeChunk(String line, RowListener listener) {
+            String[] tokens = line.trim().split(" ");
+            int firstRow = Integer.parseInt(tokens[2]);
+            int rowCount = Integer.parseInt(tokens[3]);
+            if (firstRow < 0 || rowCount < 0 || firstRow + rowCount > height) {
+                throw new IllegalArgumentException("Maze chunk outside the maze: rows " + firstRow + "+" + rowCount);
+            }
+            int count = rowCount * width;
+            byte[] packed = inflate(Base64.getDecoder().decode(tokens[4]), (count + 7) >>> 3);
+
+            byte[] cells = new byte[count];
+            for (int k = 0; k < count; k++) {
+                cells[k] = (byte) ((packed[k >>> 3] >>> (k & 7)) & 1);
+            }
+            rowsReceived += rowCount;
+            listener.onRows(firstRow, rowCount, cells);
+        }
+
+        // Frees the native inflater
+        public void close() {
+            inflater.end();
+        }
+
+        private byte[] inflate(byte[] data, int length) {
+            inflater.reset();
+            inflater.setInput(data);
+            byte[] out = new byte[length];
+            try {
+                int n = 0;
+                while (n < length && !inflater.finished()) {
+                    int read = inflater.inflate(out, n, length - n);
+                    if (read == 0 && inflater.needsInput()) break;
+                    n += read;
+                }
+                if (n != length) throw new IllegalArgumentException("Maze chunk is truncated");
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Maze chunk is corrupt", e);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ShapeShifters;
+
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+import org.jogamp.java3d.BranchGroup;
+import org.jogamp.java3d.loaders.Scene;
+import org.jogamp.java3d.loaders.objectfile.ObjectFile;
+
+// Parses each OBJ model once and hands out copies of it
+    // Copies get their own nodes but share the parsed geometry, so every instance can still set its own appearance
+    // The parsed models are never added to a scene, only their copies are
+public class ModelCache {
+    private static final Map<String, BranchGroup> models = new HashMap<>();
+
+    // Returns a copy of the model loaded with the given ObjectFile flags
+    public static BranchGroup load(String path, int flags) throws FileNotFoundException {
+        return load(path, flags, -1);
+    }
+
+    // Same with a crease angle in radians for the generated normals, -1 keeps the loader default
+    public static synchronized BranchGroup load(String path, int flags, float creaseAngle) throws FileNotFoundException {
+        String key = path + "|" + flags + "|" + creaseAngle;
+        BranchGroup model = models.get(key);
+        if (model == null) {
+            ObjectFile loader = creaseAngle < 0 ? new ObjectFile(flags) : new ObjectFile(flags, creaseAngle);
+            Scene scene = loader.load(path);
+            if (scene == null) throw new FileNotFoundException("Could not load model " + path);
+            model = scene.getSceneGroup();
+            models.put(key, model);
+        }
+        return (BranchGroup) model.cloneTree(false);
+    }
+
+    // Drops every parsed model, copies already handed out are not affected
+    public static synchronized void clear() {
+        models.clear();
+    }
+}
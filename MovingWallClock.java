@@ -0,0 +1,43 @@
+package ShapeShifters;
+
+// Timing of the moving walls, shared by the client's Alpha and the server's collision checks
+    // Every cycle starts on a multiple of PERIOD_MS of the server's wall-clock time
+    // Clients that got the server's phase in the handshake add an offset to their own clock, older ones assume the clocks agree
+    // A cycle slides the walls open over RAMP_MS, holds them open for OPEN_MS, slides them back, then holds them closed
+public class MovingWallClock {
+    public static final long PERIOD_MS = 19000;
+    public static final long RAMP_MS = 2000;
+    public static final long OPEN_MS = 5000;
+    public static final long CLOSED_MS = PERIOD_MS - 2 * RAMP_MS - OPEN_MS;
+    public static final float OPEN_THRESHOLD = 0.95f; // walls count as open once they slid this far
+
+    // How far the walls slid at the given System.currentTimeMillis, 0 = closed and 1 = open
+    public static float value(long wallMillis) {
+        long t = Math.floorMod(wallMillis, PERIOD_MS);
+        if (t < RAMP_MS) return (float) t / RAMP_MS;
+        t -= RAMP_MS;
+        if (t < OPEN_MS) return 1f;
+        t -= OPEN_MS;
+        if (t < RAMP_MS) return 1f - (float) t / RAMP_MS;
+        return 0f;
+    }
+
+    public static boolean isOpen(long wallMillis) {
+        return value(wallMillis) > OPEN_THRESHOLD;
+    }
+
+    // Position within the current cycle, in milliseconds
+    public static long phase(long wallMillis) {
+        return Math.floorMod(wallMillis, PERIOD_MS);
+    }
+
+    // Offset to add to the local clock so that its phase matches the server's phase read at localMillis
+    public static long offsetFromPhase(long serverPhase, long localMillis) {
+        return Math.floorMod(serverPhase - localMillis, PERIOD_MS);
+    }
+
+    // Milliseconds until the next cycle starts, used as the Alpha's phase delay
+    public static long delayToNextCycle(long wallMillis) {
+        return PERIOD_MS - Math.floorMod(wallMillis, PERIOD_MS);
+    }
+}
@@ -1,50 +1,38 @@
 package ShapeShifters;
 
-import java.util.List;
-import java.util.Random;
 import org.jogamp.java3d.*;
-import org.jogamp.java3d.loaders.Scene;
 import org.jogamp.java3d.loaders.objectfile.ObjectFile;
 import org.jogamp.java3d.utils.geometry.Box;
 import org.jogamp.vecmath.*;
 
 // Class that represents a non-player character
+    // Only the model, the npc's state lives in an NpcStore so the server can simulate npcs without any scene
 public class NPC {
     // Model constants
     private static final double MODEL_SCALE = 0.05;
     private static final String MODEL_PATH = "src/ShapeShifters/assets/ghost.obj";
-    private static final double CHARACTER_HALF = 0.035; // Match this with GhostModel or adjust as needed
+    private static final double CHARACTER_HALF = NpcStore.NPC_HALF;
     
     // Transform hierarchy
     private TransformGroup positionTG; // Root TG - handles position only
     private TransformGroup rotationTG; // Child TG - handles rotation only
     
-    private Vector3d position;
-    private Vector3d direction;
-    double step;
+    private final NpcStore store;
+    private final int index;
 
-    private GhostModel userGhost;
+    // reused every frame, setTransform copies them
+    private final Transform3D positionTransform = new Transform3D();
+    private final Transform3D rotationTransform = new Transform3D();
+    private final Vector3d translation = new Vector3d();
 
-    public interface CollisionChecker {
-        boolean collides(double x, double z);
-    }
-
-    // Initializes the NPC’s position, direction, model, and rotation
-    public NPC(Vector3d pos, Vector3d dir, double step, Appearance unusedAppearance) {
-        this.position = new Vector3d(pos);
-        this.direction = new Vector3d(dir);
-        
-        // Normalize the direction if it's diagonal
-        if (dir.x != 0 && dir.z != 0) {
-            double length = Math.sqrt(dir.x * dir.x + dir.z * dir.z);
-            this.direction.x = dir.x / length;
-            this.direction.z = dir.z / length;
-        }
-        this.step = step;
+    // Initializes the model of npc index in the store at its current position and rotation
+    public NPC(NpcStore store, int index, Appearance unusedAppearance) {
+        this.store = store;
+        this.index = index;
 
         // Create position TransformGroup (root)
         Transform3D posTransform = new Transform3D();
-        posTransform.setTranslation(position);
+        posTransform.setTranslation(getPosition());
         positionTG = new TransformGroup(posTransform);
         positionTG.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
         
@@ -58,22 +46,14 @@ public class NPC {
         
         // Apply initial rotation based on direction
         updateRotation();
-        
-        // Print debug info at creation
-        System.out.println("NPC created with direction: " + direction);
     }
 
     // Loads the 3D ghost model and applies green appearance
     // Adds LOD support or fallback box
     private void loadGhostModel() {
         try {
-            // Create ObjectFile loader
-            ObjectFile loader = new ObjectFile(ObjectFile.RESIZE);
-            loader.setFlags(ObjectFile.RESIZE | ObjectFile.TRIANGULATE | ObjectFile.STRIPIFY);
-
-            // Load the model
-            Scene modelScene = loader.load(MODEL_PATH);
-            BranchGroup modelBG = modelScene.getSceneGroup();
+            // Copy of the model, the file is only parsed for the first NPC
+            BranchGroup modelBG = ModelCache.load(MODEL_PATH, ObjectFile.RESIZE | ObjectFile.TRIANGULATE | ObjectFile.STRIPIFY);
             modelBG.setCapability(BranchGroup.ALLOW_PICKABLE_READ);
             
             // Create green appearance
@@ -170,25 +150,25 @@ public class NPC {
 
     // Updates the NPCs rotation based on direction vector
     public void updateRotation() {
-        // Create a fresh transform for rotation
-        Transform3D rotTransform = new Transform3D();
+        double dirX = store.getDirX(index);
+        double dirZ = store.getDirZ(index);
         
         // Calculate rotation angle based on direction vector
         double angle = 0.0;
         
         // Calculate angle from direction vector
         // This matches the GhostModel's rotation logic
-        if (Math.abs(direction.x) > 0 && Math.abs(direction.z) > 0) {
+        if (Math.abs(dirX) > 0 && Math.abs(dirZ) > 0) {
             // Diagonal movement
-            if (direction.x < 0 && direction.z > 0) {
+            if (dirX < 0 && dirZ > 0) {
                 // Down left
                 angle = -Math.PI/4;
             }
-            else if (direction.x < 0 && direction.z < 0) {
+            else if (dirX < 0 && dirZ < 0) {
                 // Up left
                 angle = -3*Math.PI/4;
             }
-            else if (direction.x > 0 && direction.z > 0) {
+            else if (dirX > 0 && dirZ > 0) {
                 // Down right
                 angle = Math.PI/4;
             }
@@ -197,9 +177,9 @@ public class NPC {
                 angle = 3*Math.PI/4;
             }
         }
-        else if (Math.abs(direction.x) > Math.abs(direction.z)) {
+        else if (Math.abs(dirX) > Math.abs(dirZ)) {
             // Moving primarily along X axis
-            if (direction.x > 0) {
+            if (dirX > 0) {
                 // Right
                 angle = Math.PI/2;
             }
@@ -210,7 +190,7 @@ public class NPC {
         }
         else {
             // Moving primarily along Z axis
-            if (direction.z < 0) {
+            if (dirZ < 0) {
                 // Up
                 angle = Math.PI;
             }
@@ -221,25 +201,40 @@ public class NPC {
         }
         
         // Apply rotation around Y axis
-        rotTransform.rotY(angle);
+        rotationTransform.rotY(angle);
         
         // Apply the transform to the rotation group
-        rotationTG.setTransform(rotTransform);
+        rotationTG.setTransform(rotationTransform);
     }
 
     // Gets the direction of the NPC
     public Vector3d getDirection() {
-        return new Vector3d(direction);
+        return getDirection(new Vector3d());
+    }
+
+    // Copies the direction into out and returns it
+    public Vector3d getDirection(Vector3d out) {
+        out.set(store.getDirX(index), 0, store.getDirZ(index));
+        return out;
     }
 
     // Gets the position of the NPC
     public Vector3d getPosition() {
-        return new Vector3d(position);
+        return getPosition(new Vector3d());
     }
 
-    // Sets position of NPC
-    public void setPosition(Vector3d newPos) {
-        this.position = new Vector3d(newPos);
+    // Copies the position into out and returns it
+    public Vector3d getPosition(Vector3d out) {
+        out.set(store.getX(index), 0.1, store.getZ(index));
+        return out;
+    }
+
+    // Moves the npc in the store and its model
+    public void setPosition(double x, double z) {
+        store.setPosition(index, x, z);
+        translation.set(x, 0.1, z);
+        positionTransform.setTranslation(translation);
+        positionTG.setTransform(positionTransform);
     }
 
     // TG
@@ -252,186 +247,13 @@ public class NPC {
         return CHARACTER_HALF;
     }
 
-    // Sets the direction of the NPC
-    public void setDirection(Vector3d newDir) {
-        this.direction.set(newDir);
-        this.direction.normalize();
+    // Sets the direction of the NPC and turns the model
+    public void setDirection(double dirX, double dirZ) {
+        store.setDirection(index, dirX, dirZ);
         updateRotation();
     }
 
-    public double getStep() {
-        return this.step;
-    }
-
-    // Updates NPC position and handles collisions with maze and player
-    public void update(CollisionChecker checker, GhostModel userGhost) {
-        // Calculate new position based on current direction
-        double newX = position.x + direction.x * step;
-        double newZ = position.z + direction.z * step;
-
-        boolean directionChanged = false;
-        
-        if (checker.collides(newX, newZ) || CollisionDetector.collidesWithUser(newX, newZ, NPC.getCharacterHalf(), userGhost)) {
-            // Store old direction for comparison
-            Vector3d oldDirection = new Vector3d(direction);
-            
-            // Try changing direction up to 4 times
-            for (int i = 0; i < 4; i++) {
-                direction = randomizeDirection();
-                
-                // Skip if we randomly chose the same direction
-                if (oldDirection.equals(direction)) {
-                    continue;
-                }
-                
-                newX = position.x + direction.x * step;
-                newZ = position.z + direction.z * step;
-                
-                if (!checker.collides(newX, newZ)) {
-                    directionChanged = true;
-                    break;
-                }
-            }
-            
-            if (!directionChanged) {
-                // No valid move found
-                // Dont change position
-                return;
-            }
-        }
-
-        // Update position
-        position.x = newX;
-        position.z = newZ;
-
-        // Update position transform
-        Transform3D posTransform = new Transform3D();
-        posTransform.setTranslation(position);
-        positionTG.setTransform(posTransform);
-
-        if (directionChanged) {
-            // Force rotation update when direction changes
-            updateRotation();
-        }
-        
-        // Update LOD position for LOD behavior
-        updateLODPositions();
-    }
-
-    // Updates the LOD system with current NPC position
-    private void updateLODPositions() {
-        // Search for DistanceLOD behaviors in the scene graph
-        if (rotationTG != null) {
-            updateLODPositionsInGroup(rotationTG);
-        }
-    }
-
-    private void updateLODPositionsInGroup(Node node) {
-        if (node instanceof DistanceLOD) {
-            // Update the position of the LOD behavior
-            LODHelper.updateLODPosition((DistanceLOD) node, position);
-        }
-        else if (node instanceof Group) {
-            Group group = (Group) node;
-            // Search all children
-            for (int i = 0; i < group.numChildren(); i++) {
-                updateLODPositionsInGroup(group.getChild(i));
-            }
-        }
-    }
-
-    // Helper method to randomize direction when collision occurs
-        // Supports 8 directions
-    private Vector3d randomizeDirection() {
-        Random rand = new Random();
-        int choice = rand.nextInt(8);
-        Vector3d newDir;
-        
-        switch (choice) {
-            case 0: newDir = new Vector3d(1, 0, 0);
-                break;
-            case 1: newDir = new Vector3d(-1, 0, 0);
-                break;
-            case 2: newDir = new Vector3d(0, 0, 1);
-                break;
-            case 3: newDir = new Vector3d(0, 0, -1);
-                break;
-            case 4: newDir = new Vector3d(1, 0, 1);
-                break;
-            case 5: newDir = new Vector3d(-1, 0, 1);
-                break;
-            case 6: newDir = new Vector3d(1, 0, -1);
-                break;
-            default: newDir = new Vector3d(-1, 0, -1);
-                break;
-        }
-        
-        // Normalize diagonal directions
-        if (newDir.x != 0 && newDir.z != 0) {
-            double length = Math.sqrt(newDir.x * newDir.x + newDir.z * newDir.z);
-            newDir.x = newDir.x / length;
-            newDir.z = newDir.z / length;
-        }
-        
-        return newDir;
-    }
-
-    // Creating an NPC at a random position
-    public static NPC generateRandomNPC(List<Vector3d> validPositions, Appearance appearance, double step) {
-        if (validPositions.isEmpty()) {
-            throw new IllegalArgumentException("No valid positions available");
-        }
-
-        int index = (int) (Math.random() * validPositions.size());
-        Vector3d pos = validPositions.remove(index);
-
-        Random rand = new Random();
-        int choice = rand.nextInt(8);
-        Vector3d dir;
-        
-        switch (choice) {
-            case 0: dir = new Vector3d(1, 0, 0);
-                break;
-            case 1: dir = new Vector3d(-1, 0, 0);
-                break;
-            case 2: dir = new Vector3d(0, 0, 1);
-                break;
-            case 3: dir = new Vector3d(0, 0, -1);
-                break;
-            case 4: dir = new Vector3d(1, 0, 1);
-                break;
-            case 5: dir = new Vector3d(-1, 0, 1);
-                break;
-            case 6: dir = new Vector3d(1, 0, -1);
-                break;
-            default: dir = new Vector3d(-1, 0, -1);
-                break;
-        }
-        
-        // Normalize diagonal directions
-        if (dir.x != 0 && dir.z != 0) {
-            double length = Math.sqrt(dir.x * dir.x + dir.z * dir.z);
-            dir.x = dir.x / length;
-            dir.z = dir.z / length;
-        }
-        
-        return new NPC(pos, dir, step, appearance);
-    }
-
-
-    // Updates direction of NPC model after bounce
-    public void updateDirection(Vector3d newDirection) {
-        // Normalize the direction
-        if (newDirection.x != 0 && newDirection.z != 0) {
-            double length = Math.sqrt(newDirection.x * newDirection.x + newDirection.z * newDirection.z);
-            newDirection.x = newDirection.x / length;
-            newDirection.z = newDirection.z / length;
-        }
-        
-        // Update direction
-        this.direction = newDirection;
-        
-        // Update rotation based on new direction
-        updateRotation();
+    public int getIndex() {
+        return index;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+package ShapeShifters;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+// Client side sender that writes to the server a fixed number of times per second
+    // Lines written through writer() are queued in order, position lines only keep the latest one
+    // Everything pending goes out in one write and one flush per send, instead of a flush per line
+    // A requested PING is stamped right before the flush that sends it, so the RTT does not include the wait for a send
+    // Once stopped, or after a failed write, the pump is closed and later lines are dropped
+public class NetworkPump implements Runnable {
+    public static final int DEFAULT_SEND_RATE = 30; // sends per second
+
+    // Told on the pump thread when a send fails, the connection is unusable after that
+    public interface FailureListener {
+        void sendFailed(IOException e);
+    }
+
+    private final Writer socketOut;
+    private final long periodNanos;
+    private final QueueWriter lock = new QueueWriter(); // also the PrintWriter's lock, so a println is never split
+    private StringBuilder queued = new StringBuilder(); // ordered lines waiting for the next send
+    private StringBuilder sending = new StringBuilder(); // swapped with queued while writing
+    private String position; // newest position line, older ones are dropped
+    private boolean pingRequested = false; // guarded by lock, a PING goes out with the next send
+    private final PrintWriter writer;
+    private volatile boolean running = true;
+    private boolean closed = false; // guarded by lock, nothing is queued any more
+    private volatile FailureListener failureListener;
+    private long sendCount = 0;
+
+    public NetworkPump(OutputStream out, int sendRate) {
+        socketOut = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        periodNanos = 1_000_000_000L / Math.max(1, sendRate);
+        writer = new PrintWriter(lock, false);
+    }
+
+    // Send rate from -Dshapeshifters.sendRate, DEFAULT_SEND_RATE if unset
+    public static int sendRateFromProperties() {
+        return Integer.getInteger("shapeshifters.sendRate", DEFAULT_SEND_RATE);
+    }
+
+    // Writer for ordinary messages, println queues the line for the next send
+    public PrintWriter writer() {
+        return writer;
+    }
+
+    public void setFailureListener(FailureListener listener) {
+        failureListener = listener;
+    }
+
+    // Replaces the pending position line, only the newest one is sent
+    public void sendPosition(String line) {
+        synchronized (lock) {
+            if (!closed) position = line;
+        }
+    }
+
+    // Sends a PING with the next send, stamped when it is written, FrameStatsHud turns its PONG into the RTT
+    public void requestPing() {
+        synchronized (lock) {
+            if (!closed) pingRequested = true;
+        }
+    }
+
+    // Starts the sending thread
+    public void start() {
+        Thread thread = new Thread(this, "network-pump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops sending after one last send of anything pending
+    public void stop() {
+        running = false;
+    }
+
+    public long getSendCount() {
+        return sendCount;
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        try {
+            while (running) {
+                next += periodNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                else {
+                    next = System.nanoTime(); // fell behind, do not try to catch up
+                }
+                sendPending();
+            }
+            close();
+            sendPending();
+        } catch (IOException e) {
+            close();
+            System.err.println("Lost connection to the server: " + e.getMessage());
+            FailureListener listener = failureListener;
+            if (listener != null) listener.sendFailed(e);
+        }
+    }
+
+    // Stops queueing, anything queued before stays for a last send
+    private void close() {
+        synchronized (lock) {
+            closed = true;
+            running = false;
+        }
+    }
+
+    // Writes everything queued since the last send, then the newest position and a requested PING, with a single flush
+    void sendPending() throws IOException {
+        String positionLine;
+        boolean ping;
+        synchronized (lock) {
+            if (queued.length() == 0 && position == null && !pingRequested) return;
+            StringBuilder swap = sending;
+            sending = queued;
+            queued = swap;
+            positionLine = position;
+            position = null;
+            ping = pingRequested;
+            pingRequested = false;
+        }
+        socketOut.append(sending);
+        if (positionLine != null) {
+            socketOut.write(positionLine);
+            socketOut.write('\n');
+        }
+        if (ping) {
+            // last, so the stamp is taken as close to the flush as possible
+            socketOut.write(FrameStatsHud.pingLine(System.nanoTime()));
+            socketOut.write('\n');
+        }
+        socketOut.flush();
+        sending.setLength(0);
+        sendCount++;
+    }
+
+    // Appends whatever PrintWriter writes to the queue
+    private class QueueWriter extends Writer {
+        @Override
+        public void write(char[] chars, int off, int len) {
+            synchronized (this) {
+                if (!closed) queued.append(chars, off, len);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            synchronized (this) {
+                if (!closed) queued.append(str, off, off + len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            // sent by the pump
+        }
+
+        @Override
+        public void close() {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ShapeShifters;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Non-blocking server mode for BasicServer
+    // One selector thread owns every socket, broadcasts only append to per-client write queues
+    // A slow client grows its own queue instead of stalling the npc broadcast for everyone
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+    private static final int MAX_QUEUED_BYTES = 1 << 20; // clients this far behind are dropped
+    private static final long SELECT_TIMEOUT_MS = 100;
+
+    private final int port;
+    private Selector selector;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>(); // connections with new output
+    private final List<Connection> awaitingHello = new ArrayList<>(); // selector thread only
+
+    public NioServer(int port) {
+        this.port = port;
+    }
+
+    // Runs the selector loop on the calling thread
+    public void run() throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true) {
+                selector.select(SELECT_TIMEOUT_MS);
+
+                // turn on write interest for connections that were given messages by other threads
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    pending.enableWrites();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept(server);
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.write();
+                    } catch (IOException | RuntimeException e) {
+                        connection.close(); // a thread per client would have died here too
+                    }
+                }
+
+                expireHandshakes();
+            }
+        } finally {
+            selector.close();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        System.out.println("New client connected: " + channel.getRemoteAddress());
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        awaitingHello.add(connection);
+    }
+
+    // Clients that did not say HELLO in time get the text protocol
+    private void expireHandshakes() {
+        long now = System.currentTimeMillis();
+        Iterator<Connection> it = awaitingHello.iterator();
+        while (it.hasNext()) {
+            Connection connection = it.next();
+            if (connection.started || connection.closed) {
+                it.remove();
+            }
+            else if (now >= connection.helloDeadline) {
+                it.remove();
+                connection.start();
+            }
+        }
+    }
+
+    // One client socket with its own read buffer and write queue
+    private class Connection extends BasicServer.ClientSession {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private int queuedBytes = 0;
+        private int burstBytes = 0; // queued bytes of the initial state, not counted against MAX_QUEUED_BYTES
+        private boolean overflowed = false;
+        private final long helloDeadline;
+        private boolean started = false; // selector thread only
+        private volatile boolean closed = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.helloDeadline = System.currentTimeMillis() + Handshake.HELLO_TIMEOUT_MS;
+        }
+
+        // Joins a room, which sends the initial state
+        void start() {
+            started = true;
+            BasicServer.joinLobby(this);
+        }
+
+        // Called from any thread, never blocks
+        @Override
+        public void sendMessage(String message) {
+            if (closed) return;
+            ByteBuffer bytes = ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+            boolean wasEmpty;
+            synchronized (writeQueue) {
+                if (overflowed) return;
+                if (queuedBytes - burstBytes + bytes.remaining() > MAX_QUEUED_BYTES) {
+                    overflowed = true; // closed on the selector thread
+                    wasEmpty = true;
+                }
+                else {
+                    wasEmpty = writeQueue.isEmpty();
+                    writeQueue.add(bytes);
+                    queuedBytes += bytes.remaining();
+                    getTraffic().sent(message);
+                }
+            }
+            if (wasEmpty) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // Called from any thread, the lines do not count against MAX_QUEUED_BYTES
+        @Override
+        public void sendInitialState(List<String> lines) {
+            if (closed) return;
+            boolean wasEmpty;
+            synchronized (writeQueue) {
+                if (overflowed) return;
+                wasEmpty = writeQueue.isEmpty();
+                for (String line : lines) {
+                    ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    writeQueue.add(bytes);
+                    queuedBytes += bytes.remaining();
+                    burstBytes += bytes.remaining();
+                    getTraffic().sent(line);
+                }
+            }
+            if (wasEmpty) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public int getQueueDepth() {
+            synchronized (writeQueue) {
+                return writeQueue.size();
+            }
+        }
+
+        // Selector thread only
+        void enableWrites() {
+            if (closed || !key.isValid()) return;
+            boolean dropped;
+            synchronized (writeQueue) {
+                dropped = overflowed;
+            }
+            if (dropped) {
+                System.out.println("Dropping client " + playerId + ", too far behind");
+                close();
+                return;
+            }
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        void write() throws IOException {
+            synchronized (writeQueue) {
+                while (!writeQueue.isEmpty()) {
+                    ByteBuffer head = writeQueue.peek();
+                    int written = channel.write(head);
+                    queuedBytes -= written;
+                    burstBytes = Math.max(0, burstBytes - written); // the burst was queued ahead of later lines
+                    if (head.hasRemaining()) return; // socket buffer full, wait for the next OP_WRITE
+                    writeQueue.poll();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        void read() throws IOException {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            int lineStart = 0;
+            for (int i = readBuffer.position(); i < readBuffer.limit(); i++) {
+                if (readBuffer.get(i) != '\n') continue;
+                int end = i;
+                if (end > lineStart && readBuffer.get(end - 1) == '\r') end--;
+                String line = new String(readBuffer.array(), lineStart, end - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+                onLine(line);
+                if (closed) return;
+            }
+            readBuffer.position(lineStart);
+            readBuffer.compact();
+
+            // a partial line filled the buffer, grow it
+            if (!readBuffer.hasRemaining()) {
+                if (readBuffer.capacity() >= MAX_LINE_LENGTH) throw new IOException("Line too long");
+                ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+        }
+
+        private void onLine(String line) {
+            if (!started) {
+                if (line.startsWith(Handshake.HELLO)) {
+                    negotiate(line);
+                    start();
+                    return;
+                }
+                start(); // not a hello, treat as an older client
+            }
+            handleLine(line);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) { /* ignore */ }
+            disconnected();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package ShapeShifters;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Pushes apart npcs that overlap each other, once per server tick
+    // A SpatialGrid rebuilt every pass is the broad phase, so each npc is only tested against its neighbours
+    // Pairs are resolved in the same (i, j) order as a plain double loop, so results do not depend on the grid
+    // Pushes move npcs away from where they were inserted, so queries reach as far as the furthest moved npc
+    // and an npc that gets pushed looks for the rest of its partners again from where it was pushed to
+public class NpcContactSolver {
+    static final int STRIPE_COLUMNS = 8; // grid columns per stripe of the parallel pass
+
+    private final SpatialGrid grid;
+    private final double half; // half size of every npc
+    private int[] candidates = new int[0];
+    private double[] drift = new double[0]; // how far each npc may have been pushed since the grid was built
+    private double maxDrift; // largest drift, of every npc in resolve and of the cross-stripe pass in resolveParallel
+
+    // parallel pass, see resolveParallel
+    private int[] stripeOf = new int[0];
+    private int[] stripeStart = new int[0]; // members of stripe s are stripeMembers[stripeStart[s] .. stripeStart[s + 1])
+    private int[] stripeMembers = new int[0];
+    private int[] stripeNext = new int[0];
+    private int[][] stripeCandidates = new int[0][];
+    private double[] stripeDrift = new double[0]; // largest drift inside each stripe, written by its task only
+
+    public NpcContactSolver(SpatialGrid grid, double half) {
+        this.grid = grid;
+        this.half = half;
+    }
+
+    // Resolves every overlapping pair among the first count npcs, returns how many pairs were pushed apart
+        // Positions and directions are updated in place and touched[i] is set for every npc that moved, touched may be null
+    public int resolve(double[] x, double[] z, double[] dirX, double[] dirZ, double[] step, int count, boolean[] touched) {
+        buildGrid(x, z, count);
+        if (candidates.length < count) {
+            candidates = new int[count];
+        }
+
+        int contacts = 0;
+        maxDrift = 0;
+        for (int i = 0; i < count; i++) {
+            int found = collect(i, i, 2 * half + maxDrift, x, z, candidates);
+            for (int k = 0; k < found; k++) {
+                int j = candidates[k];
+                if (!push(i, j, x, z, dirX, dirZ, step)) continue;
+                maxDrift = Math.max(maxDrift, Math.max(drift[i], drift[j]));
+                if (touched != null) {
+                    touched[i] = true;
+                    touched[j] = true;
+                }
+                contacts++;
+                // i moved, look again from where it is now for the ids after j
+                found = collect(i, j, 2 * half + maxDrift, x, z, candidates);
+                k = -1;
+            }
+        }
+        return contacts;
+    }
+
+    // Same as resolve but on the pool, returns how many pairs were pushed apart
+        // npcs are split into stripes of STRIPE_COLUMNS grid columns by where they are at the start
+        // Pairs inside a stripe are resolved by that stripe's task, in (i, j) order
+        // Pairs across stripes are resolved afterwards on the calling thread, also in (i, j) order
+        // The stripes follow the maze rather than the number of threads, so a seed plays out the same on any machine
+        // Results differ slightly from resolve, which handles every pair in one sequence
+    public int resolveParallel(ForkJoinPool pool, double[] x, double[] z, double[] dirX, double[] dirZ, double[] step, int count) {
+        buildGrid(x, z, count);
+        int stripes = (grid.getColumns() + STRIPE_COLUMNS - 1) / STRIPE_COLUMNS;
+        assignStripes(x, count, stripes);
+
+        int contacts = pool.submit(() -> IntStream.range(0, stripes).parallel()
+                .map(s -> resolveStripe(s, x, z, dirX, dirZ, step))
+                .sum()).join();
+
+        // pairs that cross a stripe boundary
+        if (candidates.length < count) {
+            candidates = new int[count];
+        }
+        maxDrift = 0;
+        for (int s = 0; s < stripes; s++) {
+            maxDrift = Math.max(maxDrift, stripeDrift[s]);
+        }
+        for (int i = 0; i < count; i++) {
+            // npcs further than reach from the edges of their stripe can only have partners inside it
+            double reach = 2 * half + maxDrift;
+            if (grid.column(x[i] - reach) / STRIPE_COLUMNS == stripeOf[i]
+                    && grid.column(x[i] + reach) / STRIPE_COLUMNS == stripeOf[i]) continue;
+            int found = collect(i, i, reach, x, z, candidates);
+            for (int k = 0; k < found; k++) {
+                int j = candidates[k];
+                if (stripeOf[j] == stripeOf[i] || !push(i, j, x, z, dirX, dirZ, step)) continue;
+                maxDrift = Math.max(maxDrift, Math.max(drift[i], drift[j]));
+                contacts++;
+                found = collect(i, j, 2 * half + maxDrift, x, z, candidates);
+                k = -1;
+            }
+        }
+        return contacts;
+    }
+
+    // Resolves the pairs with both npcs in the stripe, only reads and writes npcs of that stripe
+    private int resolveStripe(int stripe, double[] x, double[] z, double[] dirX, double[] dirZ, double[] step) {
+        int count = drift.length;
+        int[] found = stripeCandidates[stripe];
+        if (found == null || found.length < count) {
+            found = stripeCandidates[stripe] = new int[count];
+        }
+        int contacts = 0;
+        double localDrift = 0; // only npcs of this stripe can be candidates, so their drift is all that matters
+        for (int m = stripeStart[stripe]; m < stripeStart[stripe + 1]; m++) {
+            int i = stripeMembers[m];
+            int same = collectInStripe(i, i, 2 * half + localDrift, stripe, x, z, found);
+            for (int k = 0; k < same; k++) {
+                int j = found[k];
+                if (!push(i, j, x, z, dirX, dirZ, step)) continue;
+                localDrift = Math.max(localDrift, Math.max(drift[i], drift[j]));
+                contacts++;
+                same = collectInStripe(i, j, 2 * half + localDrift, stripe, x, z, found);
+                k = -1;
+            }
+        }
+        stripeDrift[stripe] = localDrift;
+        return contacts;
+    }
+
+    // Puts every npc in the stripe of its grid column, members of each stripe stay in index order
+    private void assignStripes(double[] x, int count, int stripes) {
+        if (stripeOf.length < count) {
+            stripeOf = new int[count];
+            stripeMembers = new int[count];
+        }
+        if (stripeStart.length < stripes + 1) {
+            stripeStart = new int[stripes + 1];
+            stripeNext = new int[stripes];
+            stripeCandidates = Arrays.copyOf(stripeCandidates, stripes);
+            stripeDrift = new double[stripes];
+        }
+        Arrays.fill(stripeStart, 0);
+        for (int i = 0; i < count; i++) {
+            stripeOf[i] = grid.column(x[i]) / STRIPE_COLUMNS;
+            stripeStart[stripeOf[i] + 1]++;
+        }
+        for (int s = 0; s < stripes; s++) {
+            stripeStart[s + 1] += stripeStart[s];
+        }
+        System.arraycopy(stripeStart, 0, stripeNext, 0, stripes);
+        for (int i = 0; i < count; i++) {
+            stripeMembers[stripeNext[stripeOf[i]]++] = i;
+        }
+    }
+
+    // Writes the ids above after that may touch npc i where it is now into out in ascending order, returns how many
+        // reach must cover 2 * half plus how far any candidate drifted from where it was inserted
+    private int collect(int i, int after, double reach, double[] x, double[] z, int[] out) {
+        int found = grid.collectWithin(x[i], z[i], reach, after, out);
+        Arrays.sort(out, 0, found);
+        return found;
+    }
+
+    // Same as collect, keeping only npcs of the stripe
+    private int collectInStripe(int i, int after, double reach, int stripe, double[] x, double[] z, int[] out) {
+        int total = grid.collectWithin(x[i], z[i], reach, after, out);
+        int same = 0;
+        for (int k = 0; k < total; k++) {
+            if (stripeOf[out[k]] == stripe) out[same++] = out[k];
+        }
+        Arrays.sort(out, 0, same);
+        return same;
+    }
+
+    // Rebuilds the grid from the current positions and clears the drift of every npc
+    private void buildGrid(double[] x, double[] z, int count) {
+        grid.clear(count);
+        for (int i = 0; i < count; i++) {
+            grid.insert(i, x[i], z[i]);
+        }
+        if (drift.length != count) {
+            drift = new double[count];
+        }
+        else {
+            Arrays.fill(drift, 0);
+        }
+    }
+
+    // Pushes npcs i and j apart and turns them around if they overlap, returns true if they did
+    private boolean push(int i, int j, double[] x, double[] z, double[] dirX, double[] dirZ, double[] step) {
+        if (!CollisionDetector.isColliding(x[i], z[i], half, x[j], z[j], half)) return false;
+
+        // direction from npc i to npc j
+        double dx = x[j] - x[i];
+        double dz = z[j] - z[i];
+        double length = Math.sqrt(dx * dx + dz * dz);
+        if (length > 0) {
+            dx /= length;
+            dz /= length;
+        }
+
+        // move both npcs slightly away from each other
+        x[i] -= dx * step[i];
+        z[i] -= dz * step[i];
+        x[j] += dx * step[j];
+        z[j] += dz * step[j];
+        drift[i] += step[i];
+        drift[j] += step[j];
+
+        // reverse directions of both npcs
+        dirX[i] = -dirX[i];
+        dirZ[i] = -dirZ[i];
+        dirX[j] = -dirX[j];
+        dirZ[j] = -dirZ[j];
+        return true;
+    }
+}
@@ -0,0 +1,239 @@
+package ShapeShifters;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+// Binary NPC snapshot format used instead of the text NPC_UPDATE line
+    // Positions are fixed point shorts, directions are one of 8 octants
+    // A snapshot only carries the NPCs that changed since a baseline the client acknowledged
+    // Both ends keep a short history of snapshots so a delta can be applied on top of its baseline
+    // The bytes travel base64 encoded on a single "NPC_BIN" line so the line protocol stays intact
+public class NpcSnapshotCodec {
+    public static final int VERSION = 1;
+    public static final String PREFIX = "NPC_BIN";
+    public static final String ACK = "NPC_ACK";
+    public static final String TEXT_PREFIX = "NPC_UPDATE"; // original text format, still used by older clients
+
+    private static final double DIAGONAL = Math.sqrt(0.5);
+
+    // unit direction for each octant, starting at +x and turning towards +z
+    private static final double[] OCTANT_X = {1, DIAGONAL, 0, -DIAGONAL, -1, -DIAGONAL, 0, DIAGONAL};
+    private static final double[] OCTANT_Z = {0, DIAGONAL, 1, DIAGONAL, 0, -DIAGONAL, -1, -DIAGONAL};
+
+    // Receives each NPC decoded from a snapshot
+    public interface Listener {
+        void onNpc(int id, double x, double z, double dirX, double dirZ);
+    }
+
+    // Quantized state of every NPC at one tick
+    public static class Snapshot {
+        public final int tick;
+        public final int shift;
+        public final short[] x;
+        public final short[] z;
+        public final byte[] dir;
+
+        public Snapshot(int tick, int shift, int count) {
+            this.tick = tick;
+            this.shift = shift;
+            this.x = new short[count];
+            this.z = new short[count];
+            this.dir = new byte[count];
+        }
+
+        // Quantizes and stores one NPC
+        public void set(int id, double worldX, double worldZ, double dirX, double dirZ) {
+            x[id] = quantize(worldX, shift);
+            z[id] = quantize(worldZ, shift);
+            dir[id] = toOctant(dirX, dirZ);
+        }
+
+        public int size() {
+            return x.length;
+        }
+
+        // Hands every NPC to the listener in world units
+        public void read(Listener listener) {
+            double scale = 1.0 / (1 << shift);
+            for (int i = 0; i < x.length; i++) {
+                int octant = dir[i] & 7;
+                listener.onNpc(i, x[i] * scale, z[i] * scale, OCTANT_X[octant], OCTANT_Z[octant]);
+            }
+        }
+
+        // True if the NPC has the same quantized state in both snapshots
+        boolean sameAs(Snapshot other, int id) {
+            return x[id] == other.x[id] && z[id] == other.z[id] && dir[id] == other.dir[id];
+        }
+    }
+
+    // Fixed size ring of recent snapshots so deltas can be built against any recently acked tick
+    public static class History {
+        private final Snapshot[] ring;
+
+        public History(int capacity) {
+            ring = new Snapshot[capacity];
+        }
+
+        public synchronized void add(Snapshot snapshot) {
+            ring[Math.floorMod(snapshot.tick, ring.length)] = snapshot;
+        }
+
+        // Returns the snapshot for the tick, or null if it is unknown or was overwritten
+        public synchronized Snapshot get(int tick) {
+            if (tick < 0) return null;
+            Snapshot s = ring[Math.floorMod(tick, ring.length)];
+            return (s != null && s.tick == tick) ? s : null;
+        }
+    }
+
+    // Picks the largest fixed point precision that still fits the given world extent in a short
+    public static int shiftFor(double maxAbsCoordinate) {
+        int shift = 14;
+        while (shift > 0 && maxAbsCoordinate * (1 << shift) >= Short.MAX_VALUE) {
+            shift--;
+        }
+        return shift;
+    }
+
+    public static short quantize(double value, int shift) {
+        long q = Math.round(value * (1 << shift));
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    // Maps a direction vector to the nearest of the 8 octants
+    public static byte toOctant(double dirX, double dirZ) {
+        if (dirX == 0 && dirZ == 0) return 0;
+        int octant = (int) Math.round(Math.atan2(dirZ, dirX) / (Math.PI / 4));
+        return (byte) Math.floorMod(octant, 8);
+    }
+
+    // Encodes the NPCs that differ from the baseline, or all of them if there is no usable baseline
+        // Returns null if nothing changed
+    public static byte[] encode(Snapshot current, Snapshot baseline) {
+        boolean full = baseline == null || baseline.size() != current.size() || baseline.shift != current.shift;
+        int count = 0;
+        for (int i = 0; i < current.size(); i++) {
+            if (full || !current.sameAs(baseline, i)) count++;
+        }
+        if (count == 0) return null;
+
+        byte[] buf = new byte[1 + 4 + 4 + 1 + 5 + 5 + count * (5 + 2 + 2 + 1)];
+        int p = 0;
+        buf[p++] = VERSION;
+        p = writeInt(buf, p, current.tick);
+        p = writeInt(buf, p, full ? -1 : baseline.tick);
+        buf[p++] = (byte) current.shift;
+        p = writeVarint(buf, p, current.size());
+        p = writeVarint(buf, p, count);
+        for (int i = 0; i < current.size(); i++) {
+            if (!full && current.sameAs(baseline, i)) continue;
+            p = writeVarint(buf, p, i);
+            buf[p++] = (byte) (current.x[i] >>> 8);
+            buf[p++] = (byte) current.x[i];
+            buf[p++] = (byte) (current.z[i] >>> 8);
+            buf[p++] = (byte) current.z[i];
+            buf[p++] = current.dir[i];
+        }
+        return Arrays.copyOf(buf, p);
+    }
+
+    // Builds the protocol line for an encoded snapshot
+    public static String toLine(byte[] encoded) {
+        return PREFIX + " " + Base64.getEncoder().encodeToString(encoded);
+    }
+
+    // Decodes an "NPC_BIN" line, see decode
+    public static Snapshot decodeLine(String line, History history) {
+        return decode(Base64.getDecoder().decode(line.substring(PREFIX.length() + 1).trim()), history);
+    }
+
+    // Rebuilds the full snapshot from the encoded delta and the baseline kept in history
+        // The result is added to history, null is returned if the baseline is no longer known
+    public static Snapshot decode(byte[] buf, History history) {
+        int[] pos = {0};
+        int version = buf[pos[0]++];
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported NPC snapshot version " + version);
+        }
+        int tick = readInt(buf, pos);
+        int baselineTick = readInt(buf, pos);
+        int shift = buf[pos[0]++];
+        int size = readVarint(buf, pos);
+        int count = readVarint(buf, pos);
+
+        Snapshot snapshot = new Snapshot(tick, shift, size);
+        if (baselineTick >= 0) {
+            Snapshot baseline = history.get(baselineTick);
+            if (baseline == null || baseline.size() != size) return null;
+            System.arraycopy(baseline.x, 0, snapshot.x, 0, size);
+            System.arraycopy(baseline.z, 0, snapshot.z, 0, size);
+            System.arraycopy(baseline.dir, 0, snapshot.dir, 0, size);
+        }
+        for (int n = 0; n < count; n++) {
+            int id = readVarint(buf, pos);
+            int p = pos[0];
+            snapshot.x[id] = (short) (((buf[p] & 0xFF) << 8) | (buf[p + 1] & 0xFF));
+            snapshot.z[id] = (short) (((buf[p + 2] & 0xFF) << 8) | (buf[p + 3] & 0xFF));
+            snapshot.dir[id] = (byte) (buf[p + 4] & 7);
+            pos[0] = p + 5;
+        }
+        history.add(snapshot);
+        return snapshot;
+    }
+
+    // Appends one NPC to a text NPC_UPDATE line, y is always the floor height
+    public static void appendText(StringBuilder line, int id, double x, double z, double dirX, double dirZ) {
+        line.append(" ").append(id)
+                .append(" ").append(x)
+                .append(" ").append(0.1)
+                .append(" ").append(z)
+                .append(" ").append(dirX)
+                .append(" ").append(dirZ);
+    }
+
+    // Hands every NPC of a text NPC_UPDATE line to the listener
+    public static void decodeText(String line, Listener listener) {
+        String[] tokens = line.split(" ");
+        for (int i = 1; i + 5 < tokens.length; i += 6) {
+            int npcId = Integer.parseInt(tokens[i]);
+            double x = Double.parseDouble(tokens[i + 1]);
+            double z = Double.parseDouble(tokens[i + 3]);
+            double dirX = Double.parseDouble(tokens[i + 4]);
+            double dirZ = Double.parseDouble(tokens[i + 5]);
+            listener.onNpc(npcId, x, z, dirX, dirZ);
+        }
+    }
+
+    private static int writeInt(byte[] buf, int p, int value) {
+        buf[p++] = (byte) (value >>> 24);
+        buf[p++] = (byte) (value >>> 16);
+        buf[p++] = (byte) (value >>> 8);
+        buf[p++] = (byte) value;
+        return p;
+    }
+
+    private static int readInt(byte[] buf, int[] pos) {
+        int p = pos[0];
+        pos[0] = p + 4;
+        return ((buf[p] & 0xFF) << 24) | ((buf[p + 1] & 0xFF) << 16) | ((buf[p + 2] & 0xFF) << 8) | (buf[p + 3] & 0xFF);
+    }
+
+    private static int readVarint(byte[] buf, int[] pos) {
+        int value = 0;
+        for (int s = 0; ; s += 7) {
+            int b = buf[pos[0]++];
+            value |= (b & 0x7F) << s;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static int writeVarint(byte[] buf, int p, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[p++] = (byte) value;
+        return p;
+    }
+}
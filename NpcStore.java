@@ -0,0 +1,179 @@
+package ShapeShifters;
+
+// Position, direction and speed of every npc of a room in flat arrays, no scene graph involved
+    // The server simulates npcs here directly, the client's NPC models are views over the same store
+    // Each npc has its own random stream seeded at creation, so a seeded room always plays out the same way
+public class NpcStore {
+    public static final double NPC_HALF = 0.035; // half size of an npc against players and other npcs
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // Answers whether an npc centred at (x, z) would hit something
+    public interface CollisionChecker {
+        boolean collides(double x, double z);
+    }
+
+    // the 8 movement directions, diagonals normalized
+    private static final double DIAGONAL = Math.sqrt(0.5);
+    private static final double[] DIRECTION_X = {1, -1, 0, 0, DIAGONAL, -DIAGONAL, DIAGONAL, -DIAGONAL};
+    private static final double[] DIRECTION_Z = {0, 0, 1, -1, DIAGONAL, DIAGONAL, -DIAGONAL, -DIAGONAL};
+
+    final double[] x;
+    final double[] z;
+    final double[] dirX;
+    final double[] dirZ;
+    final double[] step; // world units per update
+    private final long[] random; // SplitMix64 state of each npc
+    private int count = 0;
+
+    public NpcStore(int capacity) {
+        x = new double[capacity];
+        z = new double[capacity];
+        dirX = new double[capacity];
+        dirZ = new double[capacity];
+        step = new double[capacity];
+        random = new long[capacity];
+    }
+
+    // Adds an npc and returns its index, diagonal directions are normalized
+    public int add(double x, double z, double dirX, double dirZ, double step, long seed) {
+        int i = count++;
+        this.x[i] = x;
+        this.z[i] = z;
+        this.step[i] = step;
+        this.random[i] = seed;
+        setDirection(i, dirX, dirZ);
+        return i;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getZ(int i) {
+        return z[i];
+    }
+
+    public double getDirX(int i) {
+        return dirX[i];
+    }
+
+    public double getDirZ(int i) {
+        return dirZ[i];
+    }
+
+    public double getStep(int i) {
+        return step[i];
+    }
+
+    public void setPosition(int i, double newX, double newZ) {
+        x[i] = newX;
+        z[i] = newZ;
+    }
+
+    // Sets the direction normalized, a zero vector is kept as is
+    public void setDirection(int i, double newDirX, double newDirZ) {
+        double length = Math.sqrt(newDirX * newDirX + newDirZ * newDirZ);
+        if (length > 0) {
+            newDirX /= length;
+            newDirZ /= length;
+        }
+        dirX[i] = newDirX;
+        dirZ[i] = newDirZ;
+    }
+
+    // Moves npc i one step along its direction
+        // If walls or blockers are in the way up to 4 random directions are tried against the walls, the npc stays put if none is free
+        // Returns true if the npc changed direction
+    public boolean update(int i, CollisionChecker walls, CollisionChecker blockers) {
+        double newX = x[i] + dirX[i] * step[i];
+        double newZ = z[i] + dirZ[i] * step[i];
+        if (!walls.collides(newX, newZ) && (blockers == null || !blockers.collides(newX, newZ))) {
+            x[i] = newX;
+            z[i] = newZ;
+            return false;
+        }
+
+        double oldDirX = dirX[i], oldDirZ = dirZ[i];
+        for (int attempt = 0; attempt < 4; attempt++) {
+            int choice = nextInt(i, 8);
+            double tryX = DIRECTION_X[choice], tryZ = DIRECTION_Z[choice];
+            if (tryX == oldDirX && tryZ == oldDirZ) continue; // randomly chose the same direction
+
+            // the direction is kept even if every attempt fails, as the old model did
+            dirX[i] = tryX;
+            dirZ[i] = tryZ;
+            newX = x[i] + tryX * step[i];
+            newZ = z[i] + tryZ * step[i];
+            if (!walls.collides(newX, newZ)) {
+                x[i] = newX;
+                z[i] = newZ;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Pushes npc i away from a box of the given half size centred at (otherX, otherZ) if they overlap
+        // The npc turns back with a little noise from its own random stream, returns true if it was pushed
+    public boolean bounceOff(int i, double otherX, double otherZ, double otherHalf) {
+        if (!CollisionDetector.isColliding(x[i], z[i], NPC_HALF, otherX, otherZ, otherHalf)) return false;
+
+        // get normalized direction from the other box to the npc
+        double normalX = x[i] - otherX;
+        double normalZ = z[i] - otherZ;
+        double length = Math.sqrt(normalX * normalX + normalZ * normalZ);
+        if (length > 0) {
+            normalX /= length;
+            normalZ /= length;
+        }
+
+        double bounceFactor = 1.5; // scale amount of displacement
+        double push = step[i] * bounceFactor;
+
+        // reflect and randomize npc direction slightly
+        double newDirX = -dirX[i] + (nextDouble(i) * 0.2 - 0.1);
+        double newDirZ = -dirZ[i] + (nextDouble(i) * 0.2 - 0.1);
+        setDirection(i, newDirX, newDirZ);
+
+        x[i] += normalX * push;
+        z[i] += normalZ * push;
+        return true;
+    }
+
+    // Updates every npc in index order
+    public void updateAll(CollisionChecker walls, CollisionChecker blockers) {
+        for (int i = 0; i < count; i++) {
+            update(i, walls, blockers);
+        }
+    }
+
+    // Next value of npc i's random stream, uniform in [0, 1)
+    public double nextDouble(int i) {
+        return (nextLong(i) >>> 11) * 0x1.0p-53;
+    }
+
+    // Next value of npc i's random stream, uniform in [0, bound)
+    public int nextInt(int i, int bound) {
+        return (int) ((nextLong(i) >>> 33) % bound);
+    }
+
+    private long nextLong(int i) {
+        long s = random[i] += GOLDEN_GAMMA;
+        s = (s ^ (s >>> 30)) * 0xBF58476D1CE4E5B9L;
+        s = (s ^ (s >>> 27)) * 0x94D049BB133111EBL;
+        return s ^ (s >>> 31);
+    }
+
+    // X of one of the 8 movement directions, see directionZ
+    public static double directionX(int choice) {
+        return DIRECTION_X[choice];
+    }
+
+    public static double directionZ(int choice) {
+        return DIRECTION_Z[choice];
+    }
+}
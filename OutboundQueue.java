@@ -0,0 +1,104 @@
+package ShapeShifters;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded queue of lines waiting to be written to one client
+    // Senders never block, a writer thread drains the queue in batches
+    // NPC frames are coalesced, an unsent frame is replaced by the newer one
+    // A burst such as the initial game state is queued whole and does not count against the capacity
+    // Uses a lock instead of synchronized so waiting virtual threads do not pin their carrier
+public class OutboundQueue {
+    private final int capacity;
+    private final ArrayDeque<String> messages = new ArrayDeque<>();
+    private String npcFrame; // latest npc state not yet written
+    private int burstLines = 0; // queued lines of offerBurst, outside the capacity
+    private boolean closed = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    public OutboundQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // True for the per tick npc broadcasts that a newer frame makes stale
+    public static boolean isNpcFrame(String message) {
+        return message.startsWith(NpcSnapshotCodec.TEXT_PREFIX) || message.startsWith(NpcSnapshotCodec.PREFIX);
+    }
+
+    // Adds a line, returns false if the queue is full or closed
+    public boolean offer(String message) {
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (isNpcFrame(message)) {
+                npcFrame = message;
+            }
+            else {
+                if (messages.size() - burstLines >= capacity) return false;
+                messages.add(message);
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Adds every line in order whatever the capacity, returns false if the queue is closed
+    public boolean offerBurst(List<String> lines) {
+        lock.lock();
+        try {
+            if (closed) return false;
+            messages.addAll(lines);
+            burstLines += lines.size();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits for lines and moves all of them into batch, returns false once closed and empty
+    public boolean takeAll(List<String> batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (messages.isEmpty() && npcFrame == null) {
+                if (closed) return false;
+                notEmpty.await();
+            }
+            batch.addAll(messages);
+            messages.clear();
+            burstLines = 0;
+            if (npcFrame != null) {
+                batch.add(npcFrame);
+                npcFrame = null;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Number of lines waiting, counting a pending npc frame as one
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size() + (npcFrame == null ? 0 : 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ShapeShifters;
+
+// Player movement shared by the client's prediction and the server's authoritative simulation
+    // Clients with the INPUT capability send "IN <seq> <buttons>" for every movement frame instead of positions
+    // The server runs the same step and answers the owner with "STATE <seq> <x> <z> <direction>" once per tick
+    // Plain Java only, the server runs it without any scene
+public class PlayerMovement {
+    public static final int VERSION = 1;
+    public static final String INPUT = "IN";
+    public static final String STATE = "STATE";
+
+    // button bits of an input frame
+    public static final int UP = 1;
+    public static final int DOWN = 2;
+    public static final int LEFT = 4;
+    public static final int RIGHT = 8;
+
+    // results of one step
+    public static final int IDLE = 0; // no button held
+    public static final int MOVED = 1;
+    public static final int BLOCKED = 2; // the move clear of walls hit an npc or the other player
+    public static final int AT_WALL = 3; // buttons held but every move hit a wall
+
+    public static final double NORMAL_STEP = 0.01; // world units per movement frame
+    public static final double SLOW_STEP = 0.002; // while the blue ghost is turned green
+    public static final double PLAYER_HALF = 0.025;
+
+    // Things other than walls that stop a player, such as npcs and the other player
+    public interface Obstacles {
+        boolean blocks(double x, double z);
+    }
+
+    // Position and facing of one player
+    public static class State {
+        public double x;
+        public double z;
+        public int direction = GhostModel.DIRECTION_DOWN;
+
+        public void set(State other) {
+            x = other.x;
+            z = other.z;
+            direction = other.direction;
+        }
+    }
+
+    // tried in order: both axes, then only x, then only z, so players slide along walls
+    private static final boolean[][] COMBOS = { {true, true}, {true, false}, {false, true} };
+
+    // Applies one input frame to the state, returns IDLE, MOVED, BLOCKED or AT_WALL
+    public static int step(State state, int buttons, double step, MazeGrid grid, boolean movingWallsOpen, Obstacles obstacles) {
+        if ((buttons & (UP | DOWN | LEFT | RIGHT)) == 0) return IDLE;
+
+        for (boolean[] combo : COMBOS) {
+            boolean changeX = combo[0], changeZ = combo[1];
+            double dx = 0, dz = 0;
+            int direction = -1;
+            // Apply key inputs conditionally
+            if ((buttons & UP) != 0 && changeZ) {
+                dz -= step;
+                direction = GhostModel.DIRECTION_UP;
+            }
+            if ((buttons & DOWN) != 0 && changeZ) {
+                dz += step;
+                direction = GhostModel.DIRECTION_DOWN;
+            }
+            if ((buttons & LEFT) != 0 && changeX) {
+                dx -= step;
+                direction = GhostModel.DIRECTION_LEFT;
+            }
+            if ((buttons & RIGHT) != 0 && changeX) {
+                dx += step;
+                direction = GhostModel.DIRECTION_RIGHT;
+            }
+            if (dx == 0 && dz == 0) continue; // nothing held on these axes
+
+            // Normalize diagonal movement
+            double length = Math.sqrt(dx * dx + dz * dz);
+            dx = dx / length * step;
+            dz = dz / length * step;
+            if (dx != 0 && dz != 0) {
+                if (dx < 0 && dz > 0) {
+                    direction = GhostModel.DIRECTION_DOWNLEFT;
+                }
+                else if (dx < 0 && dz < 0) {
+                    direction = GhostModel.DIRECTION_UPLEFT;
+                }
+                else if (dx > 0 && dz > 0) {
+                    direction = GhostModel.DIRECTION_DOWNRIGHT;
+                }
+                else {
+                    direction = GhostModel.DIRECTION_UPRIGHT;
+                }
+            }
+
+            double newX = state.x + dx;
+            double newZ = state.z + dz;
+            if (grid.collides(newX, newZ, PLAYER_HALF, movingWallsOpen)) continue;
+
+            // the first move clear of walls is the only one tried against npcs and players
+            if (obstacles != null && obstacles.blocks(newX, newZ)) return BLOCKED;
+            state.x = newX;
+            state.z = newZ;
+            state.direction = direction;
+            return MOVED;
+        }
+        return AT_WALL;
+    }
+
+    // Input frames the client predicted but the server has not acknowledged yet
+        // Each frame keeps the step and wall state it was predicted with so a replay moves the same way
+    public static class PendingInputs {
+        private final int[] seqs;
+        private final int[] buttons;
+        private final double[] steps;
+        private final boolean[] wallsOpen;
+        private int oldest = 0;
+        private int count = 0;
+
+        public PendingInputs(int capacity) {
+            seqs = new int[capacity];
+            buttons = new int[capacity];
+            steps = new double[capacity];
+            wallsOpen = new boolean[capacity];
+        }
+
+        // Remembers a frame, the oldest one is forgotten when full
+        public void add(int seq, int frameButtons, double step, boolean movingWallsOpen) {
+            if (count == seqs.length) {
+                oldest = (oldest + 1) % seqs.length;
+                count--;
+            }
+            int slot = (oldest + count) % seqs.length;
+            seqs[slot] = seq;
+            buttons[slot] = frameButtons;
+            steps[slot] = step;
+            wallsOpen[slot] = movingWallsOpen;
+            count++;
+        }
+
+        // Forgets every frame up to and including the acknowledged one
+        public void dropThrough(int ackedSeq) {
+            while (count > 0 && seqs[oldest] <= ackedSeq) {
+                oldest = (oldest + 1) % seqs.length;
+                count--;
+            }
+        }
+
+        // Re-applies the frames still pending on top of a state from the server
+        public void replay(State state, MazeGrid grid, Obstacles obstacles) {
+            for (int k = 0; k < count; k++) {
+                int slot = (oldest + k) % seqs.length;
+                step(state, buttons[slot], steps[slot], grid, wallsOpen[slot], obstacles);
+            }
+        }
+
+        public int size() {
+            return count;
+        }
+    }
+
+    // Button bits for the keys currently held
+    public static int buttons(boolean up, boolean down, boolean left, boolean right) {
+        return (up ? UP : 0) | (down ? DOWN : 0) | (left ? LEFT : 0) | (right ? RIGHT : 0);
+    }
+}
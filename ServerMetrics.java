@@ -0,0 +1,367 @@
+package ShapeShifters;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Live numbers about a running BasicServer, to find out where it spends its time and when it saturates
+    // Rooms record how long each phase of their tick takes, sessions count the lines they send and receive
+    // Everything is readable through JMX as ShapeShifters:type=Server and, with --metrics=PORT, from
+    // http://localhost:PORT/metrics in the Prometheus text format
+public class ServerMetrics {
+    public static final String OBJECT_NAME = "ShapeShifters:type=Server";
+    public static final String PATH = "/metrics";
+
+    // phases of MatchRoom.tick
+    public static final int PHASE_NPC_WALLS = 0;
+    public static final int PHASE_NPC_PLAYERS = 1;
+    public static final int PHASE_NPC_CONTACTS = 2;
+    public static final int PHASE_BROADCAST = 3;
+    private static final String[] PHASE_NAMES = {"npc_walls", "npc_players", "npc_contacts", "broadcast"};
+    private static final LatencyHistogram[] phases = new LatencyHistogram[PHASE_NAMES.length];
+    static {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    // Sums of every room's time in a phase, lock free so ticks never wait on a scrape
+    public static void recordPhase(int phase, long nanos) {
+        phases[phase].record(nanos);
+    }
+
+    public static LatencyHistogram getPhase(int phase) {
+        return phases[phase];
+    }
+
+    // Lines and bytes one client sent and received, with per second rates updated by the sampler
+    public static class Traffic {
+        private final LongAdder sentMessages = new LongAdder();
+        private final LongAdder sentBytes = new LongAdder();
+        private final LongAdder receivedMessages = new LongAdder();
+        private final LongAdder receivedBytes = new LongAdder();
+        private long lastSentMessages, lastSentBytes, lastReceivedMessages, lastReceivedBytes; // sampler thread only
+        private volatile double sentMessagesPerSecond, sentBytesPerSecond, receivedMessagesPerSecond, receivedBytesPerSecond;
+
+        // the protocol is ASCII, so a line costs its length plus the newline
+        public void sent(String line) {
+            sentMessages.increment();
+            sentBytes.add(line.length() + 1);
+        }
+
+        public void received(String line) {
+            receivedMessages.increment();
+            receivedBytes.add(line.length() + 1);
+        }
+
+        private void sample(double seconds) {
+            long messages = sentMessages.sum(), bytes = sentBytes.sum();
+            long inMessages = receivedMessages.sum(), inBytes = receivedBytes.sum();
+            sentMessagesPerSecond = (messages - lastSentMessages) / seconds;
+            sentBytesPerSecond = (bytes - lastSentBytes) / seconds;
+            receivedMessagesPerSecond = (inMessages - lastReceivedMessages) / seconds;
+            receivedBytesPerSecond = (inBytes - lastReceivedBytes) / seconds;
+            lastSentMessages = messages;
+            lastSentBytes = bytes;
+            lastReceivedMessages = inMessages;
+            lastReceivedBytes = inBytes;
+        }
+    }
+
+    // Attributes shown by jconsole and other JMX clients
+    public interface ServerMXBean {
+        int getRoomCount();
+        int getConnectedClients();
+        int getMaxQueueDepth();
+        long getTickCount();
+        long getTickOverruns();
+        long getTicksSkipped();
+        double getTickMeanMillis();
+        double getTickP99Millis();
+        double getNpcWallsMeanMillis();
+        double getNpcPlayersMeanMillis();
+        double getNpcContactsMeanMillis();
+        double getBroadcastMeanMillis();
+        double getSentMessagesPerSecond();
+        double getSentBytesPerSecond();
+        double getReceivedMessagesPerSecond();
+        double getReceivedBytesPerSecond();
+    }
+
+    private final SimulationScheduler simulation;
+    private final List<MatchRoom> rooms;
+    private final ScheduledExecutorService sampler;
+    private long lastSampleAt; // sampler thread only
+    private HttpServer http;
+
+    public ServerMetrics(SimulationScheduler simulation, List<MatchRoom> rooms) {
+        this.simulation = simulation;
+        this.rooms = rooms;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Reads "--metrics=PORT" from the command line, 0 if the endpoint is off
+    public static int portFromArgs(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--metrics=")) {
+                return Integer.parseInt(arg.substring("--metrics=".length()));
+            }
+        }
+        return 0;
+    }
+
+    // Registers the MBean, starts the rate sampler and, for a port above 0, the HTTP endpoint on localhost
+    public void start(int httpPort) throws IOException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ServerBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Could not register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+
+        lastSampleAt = System.nanoTime();
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+
+        if (httpPort > 0) {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            http.createContext(PATH, exchange -> {
+                byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start();
+            System.out.println("Metrics on http://localhost:" + http.getAddress().getPort() + PATH);
+        }
+    }
+
+    public void stop() {
+        sampler.shutdownNow();
+        if (http != null) http.stop(0);
+    }
+
+    // Turns every session's counters into per second rates
+    private void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastSampleAt) / 1e9);
+        lastSampleAt = now;
+        for (MatchRoom room : rooms) {
+            for (BasicServer.ClientSession client : room.getClients()) {
+                client.getTraffic().sample(seconds);
+            }
+        }
+    }
+
+    // Everything in the Prometheus text exposition format
+    public String prometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+
+        gauge(out, "shapeshifters_rooms", "Running match rooms", rooms.size());
+        gauge(out, "shapeshifters_tick_rate_hertz", "Configured simulation rate", simulation.getTickRate());
+        counter(out, "shapeshifters_ticks_total", "Simulation ticks run", simulation.getTickCount());
+        counter(out, "shapeshifters_tick_overruns_total", "Ticks that took longer than the tick period", simulation.getOverrunCount());
+        counter(out, "shapeshifters_ticks_skipped_total", "Ticks dropped after the simulation fell too far behind", simulation.getSkippedTickCount());
+
+        out.append("# HELP shapeshifters_tick_duration_seconds Time to tick every room\n");
+        out.append("# TYPE shapeshifters_tick_duration_seconds histogram\n");
+        histogram(out, "shapeshifters_tick_duration_seconds", "", simulation.getTickDurations());
+
+        out.append("# HELP shapeshifters_tick_phase_duration_seconds Time one room spent in a phase of its tick\n");
+        out.append("# TYPE shapeshifters_tick_phase_duration_seconds histogram\n");
+        for (int i = 0; i < phases.length; i++) {
+            histogram(out, "shapeshifters_tick_phase_duration_seconds", "phase=\"" + PHASE_NAMES[i] + "\"", phases[i]);
+        }
+
+        List<String> labels = new ArrayList<>();
+        List<BasicServer.ClientSession> clients = new ArrayList<>();
+        for (MatchRoom room : rooms) {
+            for (BasicServer.ClientSession client : room.getClients()) {
+                labels.add("room=\"" + room.getRoomId() + "\",player=\"" + client.playerId + "\"");
+                clients.add(client);
+            }
+        }
+        gauge(out, "shapeshifters_connected_clients", "Clients seated in a room", clients.size());
+        perClient(out, "shapeshifters_client_sent_messages_total", "counter", "Lines queued for the client", labels, clients,
+                c -> c.getTraffic().sentMessages.sum());
+        perClient(out, "shapeshifters_client_sent_bytes_total", "counter", "Bytes queued for the client", labels, clients,
+                c -> c.getTraffic().sentBytes.sum());
+        perClient(out, "shapeshifters_client_received_messages_total", "counter", "Lines received from the client", labels, clients,
+                c -> c.getTraffic().receivedMessages.sum());
+        perClient(out, "shapeshifters_client_received_bytes_total", "counter", "Bytes received from the client", labels, clients,
+                c -> c.getTraffic().receivedBytes.sum());
+        perClient(out, "shapeshifters_client_sent_messages_per_second", "gauge", "Lines sent over the last second", labels, clients,
+                c -> c.getTraffic().sentMessagesPerSecond);
+        perClient(out, "shapeshifters_client_sent_bytes_per_second", "gauge", "Bytes sent over the last second", labels, clients,
+                c -> c.getTraffic().sentBytesPerSecond);
+        perClient(out, "shapeshifters_client_queue_depth", "gauge", "Lines waiting to be written to the client", labels, clients,
+                c -> c.getQueueDepth());
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        sample(out, name, "", value);
+    }
+
+    private static void perClient(StringBuilder out, String name, String type, String help, List<String> labels,
+                                  List<BasicServer.ClientSession> clients, ToDoubleFunction<BasicServer.ClientSession> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (int i = 0; i < clients.size(); i++) {
+            sample(out, name, labels.get(i), value.applyAsDouble(clients.get(i)));
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        sample(out, name, "", value);
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long[] bounds = LatencyHistogram.getBucketBoundsMicros();
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            sample(out, name + "_bucket", prefix + "le=\"" + format(bounds[i] / 1e6) + "\"", cumulative);
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", histogram.getCount());
+        sample(out, name + "_sum", labels, histogram.getTotalNanos() / 1e9);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+
+    private class ServerBean implements ServerMXBean {
+        @Override
+        public int getRoomCount() {
+            return rooms.size();
+        }
+
+        @Override
+        public int getConnectedClients() {
+            int connected = 0;
+            for (MatchRoom room : rooms) {
+                connected += room.getClients().size();
+            }
+            return connected;
+        }
+
+        @Override
+        public int getMaxQueueDepth() {
+            int depth = 0;
+            for (MatchRoom room : rooms) {
+                for (BasicServer.ClientSession client : room.getClients()) {
+                    depth = Math.max(depth, client.getQueueDepth());
+                }
+            }
+            return depth;
+        }
+
+        @Override
+        public long getTickCount() {
+            return simulation.getTickCount();
+        }
+
+        @Override
+        public long getTickOverruns() {
+            return simulation.getOverrunCount();
+        }
+
+        @Override
+        public long getTicksSkipped() {
+            return simulation.getSkippedTickCount();
+        }
+
+        @Override
+        public double getTickMeanMillis() {
+            return simulation.getTickDurations().getMeanMillis();
+        }
+
+        @Override
+        public double getTickP99Millis() {
+            return simulation.getTickDurations().percentileMillis(99);
+        }
+
+        @Override
+        public double getNpcWallsMeanMillis() {
+            return phases[PHASE_NPC_WALLS].getMeanMillis();
+        }
+
+        @Override
+        public double getNpcPlayersMeanMillis() {
+            return phases[PHASE_NPC_PLAYERS].getMeanMillis();
+        }
+
+        @Override
+        public double getNpcContactsMeanMillis() {
+            return phases[PHASE_NPC_CONTACTS].getMeanMillis();
+        }
+
+        @Override
+        public double getBroadcastMeanMillis() {
+            return phases[PHASE_BROADCAST].getMeanMillis();
+        }
+
+        @Override
+        public double getSentMessagesPerSecond() {
+            return sumRates(t -> t.sentMessagesPerSecond);
+        }
+
+        @Override
+        public double getSentBytesPerSecond() {
+            return sumRates(t -> t.sentBytesPerSecond);
+        }
+
+        @Override
+        public double getReceivedMessagesPerSecond() {
+            return sumRates(t -> t.receivedMessagesPerSecond);
+        }
+
+        @Override
+        public double getReceivedBytesPerSecond() {
+            return sumRates(t -> t.receivedBytesPerSecond);
+        }
+
+        private double sumRates(ToDoubleFunction<Traffic> rate) {
+            double sum = 0;
+            for (MatchRoom room : rooms) {
+                for (BasicServer.ClientSession client : room.getClients()) {
+                    sum += rate.applyAsDouble(client.getTraffic());
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package ShapeShifters;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs the server simulation at a fixed tick rate
+    // Ticks are scheduled against absolute deadlines so a slow tick does not shift every later one
+    // A late scheduler catches up with back to back ticks, past MAX_CATCH_UP_TICKS the missed ticks are dropped
+    // Tick durations, overruns and dropped ticks are kept so a falling behind server shows up in the log
+public class SimulationScheduler {
+    public static final int DEFAULT_TICK_RATE = 20;
+    private static final int MAX_CATCH_UP_TICKS = 5;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final int tickRate;
+    private final long periodNanos;
+    private final Runnable step;
+    private final ScheduledExecutorService executor;
+
+    private final LatencyHistogram tickDurations = new LatencyHistogram();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong(); // ticks that took longer than the period
+    private final AtomicLong skippedTicks = new AtomicLong(); // ticks dropped after catching up failed
+
+    // scheduler thread only
+    private long nextTickAt;
+    private long lastReportAt;
+
+    public SimulationScheduler(int tickRate, Runnable step, ThreadFactory threads) {
+        if (tickRate <= 0) throw new IllegalArgumentException("Tick rate must be positive: " + tickRate);
+        this.tickRate = tickRate;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / tickRate;
+        this.step = step;
+        this.executor = Executors.newSingleThreadScheduledExecutor(threads);
+    }
+
+    // Reads "--tick-rate=N" from the command line
+    public static int tickRateFromArgs(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--tick-rate=")) {
+                return Integer.parseInt(arg.substring("--tick-rate=".length()));
+            }
+        }
+        return DEFAULT_TICK_RATE;
+    }
+
+    public void start() {
+        executor.execute(() -> {
+            nextTickAt = System.nanoTime();
+            lastReportAt = nextTickAt;
+            runDueTicks();
+        });
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    // Runs every tick whose deadline has passed, then sleeps until the next one
+    private void runDueTicks() {
+        long now = System.nanoTime();
+        int ran = 0;
+        while (now - nextTickAt >= 0 && ran < MAX_CATCH_UP_TICKS) {
+            long started = now;
+            try {
+                step.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep ticking, the next step may well succeed
+            }
+            now = System.nanoTime();
+            long took = now - started;
+            tickDurations.record(took);
+            ticks.incrementAndGet();
+            if (took > periodNanos) overruns.incrementAndGet();
+            nextTickAt += periodNanos;
+            ran++;
+        }
+        if (now - nextTickAt >= 0) {
+            // still behind, drop the missed ticks instead of spiralling
+            long missed = (now - nextTickAt) / periodNanos + 1;
+            skippedTicks.addAndGet(missed);
+            nextTickAt += missed * periodNanos;
+        }
+
+        if (now - lastReportAt >= REPORT_INTERVAL_NANOS) {
+            System.out.println(summary());
+            lastReportAt = now;
+        }
+        executor.schedule(this::runDueTicks, nextTickAt - now, TimeUnit.NANOSECONDS);
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public double getPeriodMillis() {
+        return periodNanos / 1e6;
+    }
+
+    public long getTickCount() {
+        return ticks.get();
+    }
+
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    public long getSkippedTickCount() {
+        return skippedTicks.get();
+    }
+
+    public LatencyHistogram getTickDurations() {
+        return tickDurations;
+    }
+
+    // One line report of the tick timings
+    public String summary() {
+        return String.format("Simulation %d Hz: %d ticks, mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d overruns, %d skipped",
+                tickRate, getTickCount(), tickDurations.getMeanMillis(), tickDurations.percentileMillis(50),
+                tickDurations.percentileMillis(99), tickDurations.getMaxMillis(), getOverrunCount(), getSkippedTickCount());
+    }
+}
@@ -0,0 +1,126 @@
+package ShapeShifters;
+
+// Recent timestamped states of one remote entity, used to draw it slightly in the past
+    // Positions are interpolated between the two snapshots around the render time
+    // Past the newest snapshot the entity keeps its last velocity for one update interval, at most 100 ms by default
+    // If nothing arrives by then it eases back onto the newest state over another interval instead of snapping
+    // dirX, dirZ and facing are not interpolated, they come from the latest snapshot at or before the render time
+public class SnapshotBuffer {
+    public static final long DEFAULT_MAX_EXTRAPOLATION_NANOS = 100_000_000L; // 100 ms
+
+    // Interpolated state written by sample
+    public static class Sample {
+        public double x;
+        public double z;
+        public double dirX;
+        public double dirZ;
+        public int facing; // GhostModel direction, for entities that face one of 4 ways instead of a vector
+    }
+
+    private final long[] times;
+    private final double[] xs;
+    private final double[] zs;
+    private final double[] dirXs;
+    private final double[] dirZs;
+    private final int[] facings;
+    private final long maxExtrapolationNanos;
+    private int newest = -1; // slot of the newest snapshot
+    private int count = 0;
+
+    public SnapshotBuffer() {
+        this(32, DEFAULT_MAX_EXTRAPOLATION_NANOS);
+    }
+
+    public SnapshotBuffer(int capacity, long maxExtrapolationNanos) {
+        times = new long[capacity];
+        xs = new double[capacity];
+        zs = new double[capacity];
+        dirXs = new double[capacity];
+        dirZs = new double[capacity];
+        facings = new int[capacity];
+        this.maxExtrapolationNanos = maxExtrapolationNanos;
+    }
+
+    // Records a state received at the given System.nanoTime, older snapshots than the newest are ignored
+    public void add(long timeNanos, double x, double z, double dirX, double dirZ) {
+        add(timeNanos, x, z, dirX, dirZ, 0);
+    }
+
+    public synchronized void add(long timeNanos, double x, double z, double dirX, double dirZ, int facing) {
+        if (count > 0 && timeNanos < times[newest]) return;
+        newest = (newest + 1) % times.length;
+        times[newest] = timeNanos;
+        xs[newest] = x;
+        zs[newest] = z;
+        dirXs[newest] = dirX;
+        dirZs[newest] = dirZ;
+        facings[newest] = facing;
+        if (count < times.length) count++;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Fills out with the state at renderTime, returns false if nothing was received yet
+    public synchronized boolean sample(long renderTimeNanos, Sample out) {
+        if (count == 0) return false;
+
+        // newest snapshot at or before the render time
+        int older = -1;
+        for (int k = 0; k < count; k++) {
+            int slot = slot(k);
+            if (times[slot] <= renderTimeNanos) {
+                older = slot;
+                break;
+            }
+        }
+        if (older == -1) {
+            set(out, slot(count - 1), 0, 0); // render time is before everything still buffered
+            return true;
+        }
+        if (older != newest) {
+            int newer = (older + 1) % times.length;
+            double t = (double) (renderTimeNanos - times[older]) / (times[newer] - times[older]);
+            set(out, older, t * (xs[newer] - xs[older]), t * (zs[newer] - zs[older]));
+            return true;
+        }
+
+        // past the newest snapshot, carry on with the last known velocity for about one update
+            // if nothing arrives by then the entity has most likely stopped, so it eases back onto the newest state
+            // over the same time, the overshoot is undone gradually rather than in one jump
+        long ahead = renderTimeNanos - times[newest];
+        int previous = slot(1);
+        long span = count < 2 ? 0 : times[newest] - times[previous];
+        if (span <= 0) {
+            set(out, newest, 0, 0);
+            return true;
+        }
+        long limit = Math.min(span, maxExtrapolationNanos);
+        double t;
+        if (ahead <= limit) {
+            t = (double) ahead / span;
+        }
+        else if (ahead < 2 * limit) {
+            t = (double) (2 * limit - ahead) / span;
+        }
+        else {
+            t = 0;
+        }
+        set(out, newest, t * (xs[newest] - xs[previous]), t * (zs[newest] - zs[previous]));
+        return true;
+    }
+
+    // Slot of the k-th newest snapshot
+    private int slot(int k) {
+        return Math.floorMod(newest - k, times.length);
+    }
+
+    private void set(Sample out, int slot, double dx, double dz) {
+        out.x = xs[slot] + dx;
+        out.z = zs[slot] + dz;
+        out.dirX = dirXs[slot];
+        out.dirZ = dirZs[slot];
+        out.facing = facings[slot];
+    }
+}
@@ -0,0 +1,112 @@
+package ShapeShifters;
+
+import java.util.Arrays;
+
+// Uniform grid of entity ids over the maze, rebuilt from scratch whenever the entities move
+    // Used for the area of interest of broadcasts and as the broad phase of npc contacts
+    // Each cell keeps a linked list threaded through primitive arrays, so rebuilding allocates nothing
+    // Positions outside the grid are clamped into the border cells
+public class SpatialGrid {
+    private final double minX;
+    private final double minZ;
+    private final double cellSize;
+    private final int cols; // along x
+    private final int rows; // along z
+    private final int[] head; // first entity of each cell, -1 if empty
+    private int[] next = new int[0]; // next entity in the same cell
+    private double[] xs = new double[0];
+    private double[] zs = new double[0];
+    private int count = 0;
+
+    public SpatialGrid(double minX, double minZ, double maxX, double maxZ, double cellSize) {
+        this.minX = minX;
+        this.minZ = minZ;
+        this.cellSize = cellSize;
+        this.cols = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil((maxZ - minZ) / cellSize));
+        this.head = new int[cols * rows];
+        Arrays.fill(head, -1);
+    }
+
+    // Grid covering every cell of a maze, with a margin of one maze cell
+    public static SpatialGrid forMaze(int mazeHeight, int mazeWidth, double cellSize) {
+        return new SpatialGrid(
+                MazeGrid.ORIGIN - MazeGrid.CELL_SIZE, MazeGrid.ORIGIN - MazeGrid.CELL_SIZE,
+                MazeGrid.ORIGIN + mazeHeight * MazeGrid.CELL_SIZE, MazeGrid.ORIGIN + mazeWidth * MazeGrid.CELL_SIZE,
+                cellSize);
+    }
+
+    // Empties the grid, ids from 0 to entityCount - 1 may then be inserted
+    public void clear(int entityCount) {
+        Arrays.fill(head, -1);
+        if (next.length < entityCount) {
+            next = new int[entityCount];
+            xs = new double[entityCount];
+            zs = new double[entityCount];
+        }
+        count = entityCount;
+    }
+
+    public void insert(int id, double x, double z) {
+        int cell = cellIndex(column(x), row(z));
+        xs[id] = x;
+        zs[id] = z;
+        next[id] = head[cell];
+        head[cell] = id;
+    }
+
+    // Sets mask[id] for every entity within radius of (x, z), other entries are left alone
+    public void markWithin(double x, double z, double radius, boolean[] mask) {
+        int c0 = column(x - radius), c1 = column(x + radius);
+        int r0 = row(z - radius), r1 = row(z + radius);
+        double radiusSq = radius * radius;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int id = head[cellIndex(c, r)]; id != -1; id = next[id]) {
+                    double dx = xs[id] - x;
+                    double dz = zs[id] - z;
+                    if (dx * dx + dz * dz <= radiusSq) mask[id] = true;
+                }
+            }
+        }
+    }
+
+    // Writes the ids above minId whose position is within reach of (x, z) on both axes into out, returns how many
+        // out must have room for every inserted entity, ids come out in no particular order
+    public int collectWithin(double x, double z, double reach, int minId, int[] out) {
+        int c0 = column(x - reach), c1 = column(x + reach);
+        int r0 = row(z - reach), r1 = row(z + reach);
+        int found = 0;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int id = head[cellIndex(c, r)]; id != -1; id = next[id]) {
+                    if (id > minId && Math.abs(xs[id] - x) <= reach && Math.abs(zs[id] - z) <= reach) {
+                        out[found++] = id;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getColumns() {
+        return cols;
+    }
+
+    // Column of the grid that holds x, clamped to the grid
+    int column(double x) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - minX) / cellSize)));
+    }
+
+    private int row(double z) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((z - minZ) / cellSize)));
+    }
+
+    private int cellIndex(int column, int row) {
+        return row * cols + column;
+    }
+}
@@ -25,6 +25,12 @@ public class TreasureKeyBehavior extends Behavior {
     private Alpha morphAlpha;
     private PrintWriter out;
 
+    // reused by every proximity check
+    private final Transform3D treasureTransform = new Transform3D();
+    private final Vector3d treasurePos = new Vector3d();
+    private final Vector3d playerPos = new Vector3d();
+    private final Vector3d diff = new Vector3d();
+
     // constructor
     public TreasureKeyBehavior(TreasureManager tm,
                                Vector3d redBoxPos,
@@ -87,17 +93,13 @@ public class TreasureKeyBehavior extends Behavior {
         if (playerId != 2) return;
 
         if (treasureGroup != null && treasureIsCoin) {
-            Transform3D treasureTransform = new Transform3D();
             treasureGroup.getTransform(treasureTransform);
-            Vector3d treasurePos = new Vector3d();
             treasureTransform.get(treasurePos);
 
-            Vector3d playerPos = new Vector3d();
             synchronized(playerId == 1 ? redBoxPos : blueBoxPos) {
                 playerPos.set(playerId == 1 ? redBoxPos : blueBoxPos);
             }
 
-            Vector3d diff = new Vector3d();
             diff.sub(treasurePos, playerPos);
 
             if (diff.length() < TREASURE_INTERACT_DISTANCE && !BasicScene.getGameEnded()) {
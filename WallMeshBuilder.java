@@ -0,0 +1,150 @@
+package ShapeShifters;
+
+import org.jogamp.java3d.Appearance;
+import org.jogamp.java3d.GeometryArray;
+import org.jogamp.java3d.IndexedTriangleArray;
+import org.jogamp.java3d.Shape3D;
+
+// Merges static maze walls into a few large shapes
+    // One IndexedTriangleArray per square region of cells instead of a Box and two TransformGroups per wall
+    // Faces between two static walls and the bottom faces resting on the floor are never generated
+    // Each face maps the whole texture like a Box face did, so the walls look the same
+public class WallMeshBuilder {
+    public static final int REGION_SIZE = 16; // cells per side of one merged shape
+
+    // Same box the old per cell walls used
+    private static final float HALF_WIDTH = 0.055f;
+    private static final float HALF_HEIGHT = 0.05f;
+    private static final float CENTER_Y = 0.1f;
+
+    // Says which cells hold a static wall that belongs in the merged mesh
+    public interface WallPredicate {
+        boolean isStaticWall(int i, int j);
+    }
+
+    // Receives each merged shape with the first cell of its region
+    public interface RegionListener {
+        void onRegion(int i, int j, Shape3D shape);
+    }
+
+    // side faces: neighbor offset, outward normal, and the 4 corners as (x, z) signs in counter-clockwise order seen from outside
+    private static final int[][] SIDE_NEIGHBOR = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final float[][] SIDE_NORMAL = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final float[][][] SIDE_CORNERS = {
+            {{1, 1}, {1, -1}}, // +x face, from +z to -z
+            {{-1, -1}, {-1, 1}}, // -x face, from -z to +z
+            {{-1, 1}, {1, 1}}, // +z face, from -x to +x
+            {{1, -1}, {-1, -1}}, // -z face, from +x to -x
+    };
+
+    private final WallPredicate walls;
+    private final int rows;
+    private final int cols;
+
+    public WallMeshBuilder(WallPredicate walls, int rows, int cols) {
+        this.walls = walls;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    // Builds the merged shapes covering a band of rows, regions without walls are skipped
+        // Regions stay aligned to REGION_SIZE even when the band is not, so a region never spans two chunks
+    public void build(int firstRow, int rowCount, Appearance appearance, RegionListener listener) {
+        int endRow = Math.min(rows, firstRow + rowCount);
+        for (int i = firstRow; i < endRow; i += REGION_SIZE - i % REGION_SIZE) {
+            int regionRows = Math.min(REGION_SIZE - i % REGION_SIZE, endRow - i);
+            for (int j = 0; j < cols; j += REGION_SIZE) {
+                Shape3D shape = buildRegion(i, j, regionRows, Math.min(REGION_SIZE, cols - j), appearance);
+                if (shape != null) listener.onRegion(i, j, shape);
+            }
+        }
+    }
+
+    // Builds one shape for the static walls in a block of cells, null if there are none
+    public Shape3D buildRegion(int row0, int col0, int regionRows, int regionCols, Appearance appearance) {
+        int faces = 0;
+        for (int i = row0; i < row0 + regionRows; i++) {
+            for (int j = col0; j < col0 + regionCols; j++) {
+                if (!walls.isStaticWall(i, j)) continue;
+                faces++; // top
+                for (int[] n : SIDE_NEIGHBOR) {
+                    if (!isStaticWall(i + n[0], j + n[1])) faces++;
+                }
+            }
+        }
+        if (faces == 0) return null;
+
+        float[] coords = new float[faces * 4 * 3];
+        float[] normals = new float[faces * 4 * 3];
+        float[] texCoords = new float[faces * 4 * 2];
+        int[] indices = new int[faces * 6];
+        int face = 0;
+        for (int i = row0; i < row0 + regionRows; i++) {
+            for (int j = col0; j < col0 + regionCols; j++) {
+                if (!walls.isStaticWall(i, j)) continue;
+                float x = (float) (MazeGrid.ORIGIN + i * MazeGrid.CELL_SIZE);
+                float z = (float) (MazeGrid.ORIGIN + j * MazeGrid.CELL_SIZE);
+                float top = CENTER_Y + HALF_HEIGHT;
+                float bottom = CENTER_Y - HALF_HEIGHT;
+
+                // top face, counter-clockwise seen from above
+                putFace(face++, coords, normals, texCoords, indices, 0, 1, 0,
+                        x - HALF_WIDTH, top, z + HALF_WIDTH,
+                        x + HALF_WIDTH, top, z + HALF_WIDTH,
+                        x + HALF_WIDTH, top, z - HALF_WIDTH,
+                        x - HALF_WIDTH, top, z - HALF_WIDTH);
+
+                for (int s = 0; s < 4; s++) {
+                    if (isStaticWall(i + SIDE_NEIGHBOR[s][0], j + SIDE_NEIGHBOR[s][1])) continue; // hidden by the neighbor
+                    float[] a = SIDE_CORNERS[s][0];
+                    float[] b = SIDE_CORNERS[s][1];
+                    putFace(face++, coords, normals, texCoords, indices, SIDE_NORMAL[s][0], 0, SIDE_NORMAL[s][1],
+                            x + a[0] * HALF_WIDTH, bottom, z + a[1] * HALF_WIDTH,
+                            x + b[0] * HALF_WIDTH, bottom, z + b[1] * HALF_WIDTH,
+                            x + b[0] * HALF_WIDTH, top, z + b[1] * HALF_WIDTH,
+                            x + a[0] * HALF_WIDTH, top, z + a[1] * HALF_WIDTH);
+                }
+            }
+        }
+
+        IndexedTriangleArray geometry = new IndexedTriangleArray(faces * 4,
+                GeometryArray.COORDINATES | GeometryArray.NORMALS | GeometryArray.TEXTURE_COORDINATE_2, faces * 6);
+        geometry.setCoordinates(0, coords);
+        geometry.setNormals(0, normals);
+        geometry.setTextureCoordinates(0, 0, texCoords);
+        geometry.setCoordinateIndices(0, indices);
+        geometry.setNormalIndices(0, indices);
+        geometry.setTextureCoordinateIndices(0, 0, indices);
+        return new Shape3D(geometry, appearance);
+    }
+
+    private boolean isStaticWall(int i, int j) {
+        return i >= 0 && i < rows && j >= 0 && j < cols && walls.isStaticWall(i, j);
+    }
+
+    // Writes one quad as 4 vertices and 2 triangles, corners given counter-clockwise from the front
+    private static void putFace(int face, float[] coords, float[] normals, float[] texCoords, int[] indices,
+                                float nx, float ny, float nz,
+                                float x0, float y0, float z0, float x1, float y1, float z1,
+                                float x2, float y2, float z2, float x3, float y3, float z3) {
+        int v = face * 4;
+        float[] corners = {x0, y0, z0, x1, y1, z1, x2, y2, z2, x3, y3, z3};
+        System.arraycopy(corners, 0, coords, v * 3, 12);
+        for (int k = 0; k < 4; k++) {
+            normals[(v + k) * 3] = nx;
+            normals[(v + k) * 3 + 1] = ny;
+            normals[(v + k) * 3 + 2] = nz;
+        }
+        // lower left, lower right, upper right, upper left
+        float[] uv = {0, 0, 1, 0, 1, 1, 0, 1};
+        System.arraycopy(uv, 0, texCoords, v * 2, 8);
+
+        int t = face * 6;
+        indices[t] = v;
+        indices[t + 1] = v + 1;
+        indices[t + 2] = v + 2;
+        indices[t + 3] = v;
+        indices[t + 4] = v + 2;
+        indices[t + 5] = v + 3;
+    }
+}
@@ -0,0 +1,61 @@
+package ShapeShifters;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Collision checks that run for every npc on every tick and for the player every frame
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    private static final int POINTS = 1024; // power of two so the index can be masked
+
+    private double[] xs;
+    private double[] zs;
+    private MazeGrid grid;
+    private NpcStore.CollisionChecker serverWallChecker;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        xs = new double[POINTS];
+        zs = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = random.nextDouble(-1.1, 1.1);
+            zs[i] = random.nextDouble(-1.1, 1.1);
+        }
+        grid = MazeGrid.fromMaze(GenerateMaze.getMaze(20, 20));
+        grid.setMoving(5, 5, true);
+        // same lambda the server hands to NpcStore.update
+        serverWallChecker = (x, z) -> grid.collides(x, z, MatchRoom.NPC_WALL_HALF);
+    }
+
+    private int nextIndex() {
+        return next = (next + 1) & (POINTS - 1);
+    }
+
+    @Benchmark
+    public boolean isColliding() {
+        int i = nextIndex();
+        int j = (i + 1) & (POINTS - 1);
+        return CollisionDetector.isColliding(xs[i], zs[i], NPC.getCharacterHalf(), xs[j], zs[j], GhostModel.getCharacterHalf());
+    }
+
+    @Benchmark
+    public boolean serverWallCheck() {
+        int i = nextIndex();
+        return serverWallChecker.collides(xs[i], zs[i]);
+    }
+
+    // the wall test PlayerMovement.step makes for each move it tries
+    @Benchmark
+    public boolean clientWallCheck() {
+        int i = nextIndex();
+        return grid.collides(xs[i], zs[i], GhostModel.getCharacterHalf(), (i & 1) == 0);
+    }
+}
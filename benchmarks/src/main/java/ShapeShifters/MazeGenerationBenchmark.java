@@ -0,0 +1,35 @@
+package ShapeShifters;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Maze generation from the 20x20 game maze up to very large grids
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MazeGenerationBenchmark {
+    @Param({"20", "200", "2000", "4096"})
+    public int size;
+
+    private GenerateMaze generator;
+
+    @Setup
+    public void setup() {
+        generator = new GenerateMaze(42);
+    }
+
+    @Benchmark
+    public byte[] generate() {
+        return generator.generate(size, size);
+    }
+
+    // the nested list wrapper older callers still use
+    @Benchmark
+    public ArrayList<ArrayList<Integer>> getMaze() {
+        return GenerateMaze.getMaze(size, size);
+    }
+}
@@ -0,0 +1,77 @@
+package ShapeShifters;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Steady state movement of players and npcs, gc.alloc.rate.norm should stay at about 0 B/op for all of them
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MovementBenchmark {
+    private static final int NPCS = 64;
+
+    private MazeGrid grid;
+    private NpcStore npcs;
+    private NpcStore.CollisionChecker walls;
+    private NpcStore.CollisionChecker fan;
+    private PlayerMovement.Obstacles obstacles;
+    private final PlayerMovement.State player = new PlayerMovement.State();
+    private final PlayerMovement.State replayed = new PlayerMovement.State();
+    private final PlayerMovement.PendingInputs pending = new PlayerMovement.PendingInputs(256);
+    private int frame;
+
+    @Setup
+    public void setup() {
+        grid = MazeGrid.fromMaze(GenerateMaze.getMaze(20, 20));
+        SplittableRandom random = new SplittableRandom(42);
+        npcs = new NpcStore(NPCS);
+        for (int i = 0; i < NPCS; i++) {
+            int direction = random.nextInt(8);
+            npcs.add(random.nextDouble(-1, 1), random.nextDouble(-1, 1),
+                    NpcStore.directionX(direction), NpcStore.directionZ(direction), 0.005, random.nextLong());
+        }
+        walls = (x, z) -> grid.collides(x, z, MatchRoom.NPC_WALL_HALF);
+        fan = (x, z) -> CollisionDetector.isColliding(x, z, NpcStore.NPC_HALF, 0, 0, PlayerMovement.PLAYER_HALF);
+        // same shape as MatchRoom.blocksPlayer and BasicScene.blockedByOthers
+        obstacles = (x, z) -> {
+            for (int i = 0; i < npcs.size(); i++) {
+                if (CollisionDetector.isColliding(x, z, PlayerMovement.PLAYER_HALF, npcs.getX(i), npcs.getZ(i), NpcStore.NPC_HALF)) return true;
+            }
+            return false;
+        };
+        player.x = -1 + 0.103;
+        player.z = -1 + 0.103;
+        for (int seq = 1; seq <= 8; seq++) {
+            pending.add(seq, PlayerMovement.RIGHT | PlayerMovement.DOWN, PlayerMovement.NORMAL_STEP, false);
+        }
+    }
+
+    // one movement timer frame of the local player, walking in a square so it keeps hitting walls
+    @Benchmark
+    public int playerStep() {
+        int buttons = (frame++ >> 6 & 1) == 0 ? PlayerMovement.RIGHT | PlayerMovement.DOWN : PlayerMovement.LEFT | PlayerMovement.UP;
+        return PlayerMovement.step(player, buttons, PlayerMovement.NORMAL_STEP, grid, false, obstacles);
+    }
+
+    // what the client does with every STATE line
+    @Benchmark
+    public double reconcile() {
+        replayed.set(player);
+        pending.replay(replayed, grid, obstacles);
+        return replayed.x;
+    }
+
+    // npc movement and player bounces of one server tick
+    @Benchmark
+    public double npcTick() {
+        for (int i = 0; i < npcs.size(); i++) {
+            npcs.update(i, walls, fan);
+            npcs.bounceOff(i, player.x, player.z, PlayerMovement.PLAYER_HALF);
+        }
+        return npcs.getX(0);
+    }
+}
@@ -0,0 +1,90 @@
+package ShapeShifters;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Encoding and decoding of one tick of npc state, text NPC_UPDATE against binary NPC_BIN
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NpcCodecBenchmark {
+    @Param({"3", "64"})
+    public int npcCount;
+
+    private double[] x;
+    private double[] z;
+    private double[] dirX;
+    private double[] dirZ;
+    private String textLine;
+    private NpcSnapshotCodec.Snapshot baseline;
+    private NpcSnapshotCodec.Snapshot current;
+    private String fullLine;
+    private String deltaLine;
+    private NpcSnapshotCodec.History clientHistory;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        int shift = NpcSnapshotCodec.shiftFor(1.1);
+        x = new double[npcCount];
+        z = new double[npcCount];
+        dirX = new double[npcCount];
+        dirZ = new double[npcCount];
+        baseline = new NpcSnapshotCodec.Snapshot(0, shift, npcCount);
+        current = new NpcSnapshotCodec.Snapshot(1, shift, npcCount);
+        for (int i = 0; i < npcCount; i++) {
+            x[i] = random.nextDouble(-1, 1);
+            z[i] = random.nextDouble(-1, 1);
+            double angle = random.nextInt(8) * Math.PI / 4;
+            dirX[i] = Math.cos(angle);
+            dirZ[i] = Math.sin(angle);
+            baseline.set(i, x[i], z[i], dirX[i], dirZ[i]);
+            // every npc moves one step between the two ticks
+            current.set(i, x[i] + dirX[i] * 0.005, z[i] + dirZ[i] * 0.005, dirX[i], dirZ[i]);
+        }
+        textLine = encodeText();
+        fullLine = NpcSnapshotCodec.toLine(NpcSnapshotCodec.encode(current, null));
+        deltaLine = NpcSnapshotCodec.toLine(NpcSnapshotCodec.encode(current, baseline));
+        clientHistory = new NpcSnapshotCodec.History(64);
+        clientHistory.add(baseline);
+    }
+
+    @Benchmark
+    public String encodeText() {
+        StringBuilder line = new StringBuilder(NpcSnapshotCodec.TEXT_PREFIX);
+        for (int i = 0; i < npcCount; i++) {
+            NpcSnapshotCodec.appendText(line, i, x[i], z[i], dirX[i], dirZ[i]);
+        }
+        return line.toString();
+    }
+
+    @Benchmark
+    public void decodeText(Blackhole bh) {
+        NpcSnapshotCodec.decodeText(textLine, (id, nx, nz, dx, dz) -> bh.consume(nx + nz + dx + dz));
+    }
+
+    @Benchmark
+    public String encodeBinaryFull() {
+        return NpcSnapshotCodec.toLine(NpcSnapshotCodec.encode(current, null));
+    }
+
+    @Benchmark
+    public String encodeBinaryDelta() {
+        return NpcSnapshotCodec.toLine(NpcSnapshotCodec.encode(current, baseline));
+    }
+
+    @Benchmark
+    public void decodeBinaryFull(Blackhole bh) {
+        NpcSnapshotCodec.decodeLine(fullLine, clientHistory).read((id, nx, nz, dx, dz) -> bh.consume(nx + nz + dx + dz));
+    }
+
+    @Benchmark
+    public void decodeBinaryDelta(Blackhole bh) {
+        NpcSnapshotCodec.decodeLine(deltaLine, clientHistory).read((id, nx, nz, dx, dz) -> bh.consume(nx + nz + dx + dz));
+    }
+}
@@ -0,0 +1,98 @@
+package ShapeShifters;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One tick of npc against npc contacts in a 100 x 100 maze, the grid broad phase on one thread and in stripes against the old double loop
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NpcContactBenchmark {
+    private static final int MAZE_CELLS = 100;
+
+    @Param({"100", "1000", "4000"})
+    public int count;
+
+    private double[] startX, startZ, startDirX, startDirZ;
+    private double[] x, z, dirX, dirZ, steps;
+    private boolean[] touched;
+    private NpcContactSolver solver;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        double extent = MazeGrid.ORIGIN + MAZE_CELLS * MazeGrid.CELL_SIZE;
+        startX = new double[count];
+        startZ = new double[count];
+        startDirX = new double[count];
+        startDirZ = new double[count];
+        for (int i = 0; i < count; i++) {
+            startX[i] = random.nextDouble(MazeGrid.ORIGIN, extent);
+            startZ[i] = random.nextDouble(MazeGrid.ORIGIN, extent);
+            double angle = random.nextDouble(2 * Math.PI);
+            startDirX[i] = Math.cos(angle);
+            startDirZ[i] = Math.sin(angle);
+        }
+        x = new double[count];
+        z = new double[count];
+        dirX = new double[count];
+        dirZ = new double[count];
+        steps = new double[count];
+        Arrays.fill(steps, 0.005);
+        touched = new boolean[count];
+        solver = new NpcContactSolver(SpatialGrid.forMaze(MAZE_CELLS, MAZE_CELLS, MazeGrid.CELL_SIZE), NPC.getCharacterHalf());
+    }
+
+    // every invocation starts from the same layout
+    private void reset() {
+        System.arraycopy(startX, 0, x, 0, count);
+        System.arraycopy(startZ, 0, z, 0, count);
+        System.arraycopy(startDirX, 0, dirX, 0, count);
+        System.arraycopy(startDirZ, 0, dirZ, 0, count);
+    }
+
+    @Benchmark
+    public int spatialGrid() {
+        reset();
+        return solver.resolve(x, z, dirX, dirZ, steps, count, touched);
+    }
+
+    // stripes on the common pool, as MatchRoom does with --parallel
+    @Benchmark
+    public int spatialGridParallel() {
+        reset();
+        return solver.resolveParallel(ForkJoinPool.commonPool(), x, z, dirX, dirZ, steps, count);
+    }
+
+    // the pair loop MatchRoom used before the grid
+    @Benchmark
+    public int allPairs() {
+        reset();
+        double half = NPC.getCharacterHalf();
+        int contacts = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if (!CollisionDetector.isColliding(x[i], z[i], half, x[j], z[j], half)) continue;
+                double dx = x[j] - x[i];
+                double dz = z[j] - z[i];
+                double length = Math.sqrt(dx * dx + dz * dz);
+                x[i] -= dx / length * steps[i];
+                z[i] -= dz / length * steps[i];
+                x[j] += dx / length * steps[j];
+                z[j] += dz / length * steps[j];
+                dirX[i] = -dirX[i];
+                dirZ[i] = -dirZ[i];
+                dirX[j] = -dirX[j];
+                dirZ[j] = -dirZ[j];
+                contacts++;
+            }
+        }
+        return contacts;
+    }
+}